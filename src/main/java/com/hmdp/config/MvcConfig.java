@@ -1,7 +1,9 @@
 package com.hmdp.config;
 
+import com.hmdp.interceptor.AdminInterceptor;
 import com.hmdp.interceptor.LoginInterceptor;
 import com.hmdp.interceptor.RefreshTokenInterceptor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
@@ -14,6 +16,8 @@ public class MvcConfig implements WebMvcConfigurer {
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Value("${hmdp.admin.token:}")
+    private String adminToken;
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
@@ -26,8 +30,17 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/upload/**",
                         "/blog/hot",
                         "/user/code",
-                        "/user/login"
+                        "/user/login",
+                        "/voucher-order/dlq/**"
                 ).order(1);
+        // 运维接口拦截器，凭运维令牌访问，不需要用户登录
+        registry.addInterceptor(new AdminInterceptor(adminToken))
+                .addPathPatterns(
+                        "/voucher-order/dlq/**",
+                        "/voucher/seckill/*/limit",
+                        "/voucher/seckill/reconcile",
+                        "/voucher/seckill/warm-up"
+                ).order(2);
         // token刷新的拦截器
        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate)).addPathPatterns("/**").order(0);
     }
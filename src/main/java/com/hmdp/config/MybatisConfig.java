@@ -2,15 +2,22 @@ package com.hmdp.config;
 
 import com.baomidou.mybatisplus.annotation.DbType;
 import com.baomidou.mybatisplus.extension.plugins.MybatisPlusInterceptor;
+import com.baomidou.mybatisplus.extension.plugins.inner.DynamicTableNameInnerInterceptor;
 import com.baomidou.mybatisplus.extension.plugins.inner.PaginationInnerInterceptor;
+import com.hmdp.utils.VoucherOrderShards;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.Collections;
+
 @Configuration
 public class MybatisConfig {
     @Bean
-    public MybatisPlusInterceptor mybatisPlusInterceptor() {
+    public MybatisPlusInterceptor mybatisPlusInterceptor(VoucherOrderShards voucherOrderShards) {
         MybatisPlusInterceptor interceptor = new MybatisPlusInterceptor();
+        // 订单表分表：按当前线程指定的分片改写表名，需在分页插件之前
+        interceptor.addInnerInterceptor(new DynamicTableNameInnerInterceptor(
+                Collections.singletonMap(VoucherOrderShards.TABLE, voucherOrderShards)));
         interceptor.addInnerInterceptor(new PaginationInnerInterceptor(DbType.MYSQL));
         return interceptor;
     }
@@ -3,15 +3,18 @@ package com.hmdp.config;
 import org.redisson.Redisson;
 import org.redisson.api.RedissonClient;
 import org.redisson.config.Config;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration
 public class RedissonConfig {
     @Bean
-    public RedissonClient redissonClient(){
+    public RedissonClient redissonClient(@Value("${spring.redis.host}") String host,
+                                         @Value("${spring.redis.port:6379}") int port,
+                                         @Value("${spring.redis.database:0}") int database){
         Config config = new Config();
-        config.useSingleServer().setAddress("redis://192.168.137.128:6379").setPassword(null);
+        config.useSingleServer().setAddress("redis://" + host + ":" + port).setDatabase(database).setPassword(null);
 
         return Redisson.create(config);
     }
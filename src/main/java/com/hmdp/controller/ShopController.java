@@ -6,12 +6,14 @@ import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.HotKeys;
+import com.hmdp.utils.IdBloomFilters;
 import com.hmdp.utils.SystemConstants;
-import org.springframework.cache.annotation.CachePut;
-import org.springframework.cache.annotation.Cacheable;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.Map;
 
 /**
  * <p>
@@ -27,6 +29,12 @@ public class ShopController {
 
     @Resource
     public IShopService shopService;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private IdBloomFilters bloomFilters;
+    @Resource
+    private HotKeys hotKeys;
 
     /**
      * 根据id查询商铺信息
@@ -35,7 +43,6 @@ public class ShopController {
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
- @Cacheable(cacheNames = "cache:shop", key = "#id")
     public Result queryShopById(@PathVariable("id") Long id) {
      return shopService.queryById(id);
     }
@@ -107,4 +114,26 @@ public class ShopController {
         // 返回数据
         return Result.ok(page.getRecords());
     }
+
+    /**
+     * 查询缓存各级（本地L1、Redis L2）的命中率，以及布隆过滤器的内存占用和拦截次数
+     *
+     * @return 命中率统计
+     */
+    @GetMapping("/cache/stats")
+    public Result queryCacheStats() {
+        Map<String, Object> stats = cacheClient.stats();
+        stats.put("bloom", bloomFilters.stats());
+        return Result.ok(stats);
+    }
+
+    /**
+     * 查询当前的热点key，按QPS从高到低
+     *
+     * @return 热点key列表
+     */
+    @GetMapping("/cache/hot-keys")
+    public Result queryHotKeys() {
+        return Result.ok(hotKeys.list());
+    }
 }
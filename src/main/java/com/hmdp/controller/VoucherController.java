@@ -3,7 +3,9 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
+import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillRateLimiter;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -22,6 +24,10 @@ public class VoucherController {
 
     @Resource
     private IVoucherService voucherService;
+    @Resource
+    private ISeckillVoucherService seckillVoucherService;
+    @Resource
+    private SeckillRateLimiter rateLimiter;
 
     /**
      * 新增普通券
@@ -54,4 +60,51 @@ public class VoucherController {
     public Result queryVoucherOfShop(@PathVariable("shopId") Long shopId) {
        return voucherService.queryVoucherOfShop(shopId);
     }
+
+    /**
+     * 查询最近一次秒杀库存对账报告，运维接口，需携带 X-Admin-Token 请求头
+     * @return 对账报告
+     */
+    @GetMapping("/seckill/reconcile")
+    public Result queryReconcileReport() {
+        return Result.ok(seckillVoucherService.queryLastReconcileReport());
+    }
+
+    /**
+     * 立即执行一次秒杀库存对账，运维接口，需携带 X-Admin-Token 请求头
+     * @param repair 发现不一致时是否以MySQL为准修复Redis库存
+     * @return 对账报告
+     */
+    @PostMapping("/seckill/reconcile")
+    public Result reconcileStock(@RequestParam(value = "repair", defaultValue = "false") Boolean repair) {
+        return Result.ok(seckillVoucherService.reconcileStock(repair));
+    }
+
+    /**
+     * 设置秒杀券的限流，运维接口，需携带 X-Admin-Token 请求头
+     * @param id 券id
+     * @param rate 每个用户每秒补充的令牌数，小于等于0表示不限流
+     * @param burst 令牌桶容量
+     * @return 无
+     */
+    @PutMapping("/seckill/{id}/limit")
+    public Result saveVoucherLimit(@PathVariable("id") Long id,
+                                   @RequestParam("rate") Double rate,
+                                   @RequestParam("burst") Integer burst) {
+        if (rate > 0 && burst < 1) {
+            return Result.fail("限流时令牌桶容量须大于0");
+        }
+        rateLimiter.saveVoucherLimit(id, rate, burst);
+        return Result.ok();
+    }
+
+    /**
+     * 从数据库预热秒杀库存和下单用户，运维接口，需携带 X-Admin-Token 请求头
+     * @param force 是否重建全部未结束的券
+     * @return 预热报告
+     */
+    @PostMapping("/seckill/warm-up")
+    public Result warmUp(@RequestParam(value = "force", defaultValue = "false") Boolean force) {
+        return Result.ok(seckillVoucherService.warmUp(force));
+    }
 }
@@ -4,11 +4,17 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.List;
+
 /**
  * <p>
  * 前端控制器
@@ -28,9 +34,50 @@ public class VoucherOrderController {
     }
 
 
+    /**
+     * 秒杀下单
+     * @param voucherId 券id
+     * @param idempotencyKey 可选，客户端超时重试时携带与首次相同的值，返回首次成功的订单id
+     * @return 订单id
+     */
     @PostMapping("seckill/{id}")
-    public Result seckillVoucher(@PathVariable("id") Long voucherId) throws InterruptedException {
+    public Result seckillVoucher(@PathVariable("id") Long voucherId,
+                                 @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        return voucherOrderService.seckillVoucher(voucherId, idempotencyKey);
+    }
+
+    /**
+     * 组合秒杀，多张券全部抢到或全部失败
+     * @param voucherIds 券id列表
+     * @return 各券的订单id
+     */
+    @PostMapping("seckill/bundle")
+    public Result seckillBundle(@RequestBody List<Long> voucherIds) {
+        return voucherOrderService.seckillBundle(voucherIds);
+    }
+
+    /**
+     * 查询秒杀订单状态
+     * @param orderId 订单id
+     * @return 订单状态
+     */
+    @GetMapping("{id}")
+    public Result queryOrderStatus(@PathVariable("id") Long orderId) {
+        return voucherOrderService.queryOrderStatus(orderId);
+    }
+
+    @GetMapping("stats")
+    public Result queryOrderStreamStats() {
+        return Result.ok(voucherOrderService.queryOrderStreamStats());
+    }
 
-        return voucherOrderService.seckillVoucher(voucherId);
+    /**
+     * 批量重放死信队列中的订单消息，运维接口，需携带 X-Admin-Token 请求头
+     * @param count 本次最多重放的条数
+     * @return 实际重放的条数
+     */
+    @PostMapping("dlq/replay")
+    public Result replayDeadLetters(@RequestParam(value = "count", defaultValue = "1000") Integer count) {
+        return Result.ok(voucherOrderService.replayDeadLetters(count));
     }
 }
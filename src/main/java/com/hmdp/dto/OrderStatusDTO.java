@@ -0,0 +1,21 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderStatusDTO {
+    public static final int PENDING = 0;
+    public static final int PERSISTED = 1;
+    public static final int FAILED = 2;
+    public static final int CANCELLED = 3;
+
+    private Long orderId;
+    /**
+     * 异步下单状态，0：排队中；1：已创建；2：创建失败；3：超时未支付已取消
+     */
+    private Integer state;
+}
@@ -37,6 +37,11 @@ public class SeckillVoucher implements Serializable {
      */
     private Integer stock;
 
+    /**
+     * 已从库存中扣减的订单数，由库存对账任务维护
+     */
+    private Integer appliedOrders;
+
     /**
      * 创建时间
      */
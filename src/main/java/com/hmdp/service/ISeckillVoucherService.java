@@ -3,6 +3,8 @@ package com.hmdp.service;
 import com.hmdp.entity.SeckillVoucher;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Map;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务类
@@ -13,4 +15,22 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface ISeckillVoucherService extends IService<SeckillVoucher> {
 
+    /**
+     * 对账：把订单数量的变化按券聚合回写到 tb_seckill_voucher.stock，并检查Redis与MySQL库存是否一致
+     * @param repair 发现不一致时是否以MySQL为准修复Redis库存
+     * @return 对账报告
+     */
+    Map<String, Object> reconcileStock(boolean repair);
+
+    /**
+     * 最近一次对账报告
+     */
+    Map<String, Object> queryLastReconcileReport();
+
+    /**
+     * 从MySQL重建未结束秒杀券的Redis库存、活动时间和下单用户集合
+     * @param force false 只重建库存key缺失的券；true 重建全部未结束的券，活动进行中的券保留已有库存，只补齐缺失的分片
+     * @return 预热报告
+     */
+    Map<String, Object> warmUp(boolean force);
 }
@@ -4,6 +4,9 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * <p>
  *  服务类
@@ -18,5 +21,37 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 * */
     Result seckillVoucher(Long voucherId) throws InterruptedException;
 
+    /**
+     * 秒杀下单，携带幂等键的重试直接返回首次成功的订单id
+     * @param voucherId 券id
+     * @param idempotencyKey 客户端生成的幂等键，为null时不做幂等
+     */
+    Result seckillVoucher(Long voucherId, String idempotencyKey);
+
     Result getResult(Long voucherId);
+
+    /**
+     * 组合秒杀：一次lua调用抢购多张券，全部成功或全部失败
+     * @param voucherIds 券id，重复的只算一次
+     * @return 成功时按券的顺序返回订单id
+     */
+    Result seckillBundle(List<Long> voucherIds);
+
+    /**
+     * 查询秒杀订单的异步创建状态，优先读Redis状态记录，缺失时才查MySQL
+     * @param orderId 秒杀返回的订单id
+     */
+    Result queryOrderStatus(Long orderId);
+
+    /**
+     * 订单消息队列的消费指标：吞吐、延迟、pending数量等
+     */
+    Map<String, Object> queryOrderStreamStats();
+
+    /**
+     * 将死信队列中的订单消息重新投递到 stream.orders
+     * @param count 本次最多重放的条数
+     * @return 实际重放的条数
+     */
+    int replayDeadLetters(int count);
 }
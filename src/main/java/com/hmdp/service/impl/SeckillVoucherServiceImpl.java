@@ -1,11 +1,39 @@
 package com.hmdp.service.impl;
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.hmdp.entity.SeckillVoucher;
+import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.IdBloomFilters;
+import com.hmdp.utils.RedisScriptRegistry;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.SeckillWindowCache;
+import com.hmdp.utils.SoldOutCache;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.VoucherOrderShards;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
 /**
  * <p>
  * 秒杀优惠券表，与优惠券是一对一关系 服务实现类
@@ -14,7 +42,369 @@ import org.springframework.stereotype.Service;
  * @author 虎哥
  * @since 2022-01-04
  */
+@Slf4j
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    /**
+     * 每页处理的券数量
+     */
+    private static final int VOUCHER_PAGE_SIZE = 500;
+    /**
+     * 结束超过1天的券不再参与对账
+     */
+    private static final long RECONCILE_ENDED_DAYS = 1;
+    /**
+     * 预热时每次查询、每个pipeline写入的用户数量
+     */
+    private static final int WARM_UP_CHUNK_SIZE = 5000;
+
+    private final VoucherOrderMapper voucherOrderMapper;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final SeckillStockShards stockShards;
+    private final SeckillWindowCache windowCache;
+    private final SoldOutCache soldOutCache;
+    private final VoucherOrderShards orderShards;
+    private final IdBloomFilters bloomFilters;
+    private final RedisScriptRegistry scriptRegistry;
+    private final boolean autoRepair;
+    private volatile Map<String, Object> lastReport = Collections.emptyMap();
+
+    public SeckillVoucherServiceImpl(VoucherOrderMapper voucherOrderMapper, StringRedisTemplate stringRedisTemplate,
+                                     SeckillStockShards stockShards, SeckillWindowCache windowCache, SoldOutCache soldOutCache,
+                                     VoucherOrderShards orderShards, IdBloomFilters bloomFilters, RedisScriptRegistry scriptRegistry,
+                                     @Value("${hmdp.seckill.reconcile.repair:false}") boolean autoRepair) {
+        this.voucherOrderMapper = voucherOrderMapper;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.stockShards = stockShards;
+        this.windowCache = windowCache;
+        this.soldOutCache = soldOutCache;
+        this.orderShards = orderShards;
+        this.bloomFilters = bloomFilters;
+        this.scriptRegistry = scriptRegistry;
+        this.autoRepair = autoRepair;
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.seckill.reconcile.interval-millis:10000}")
+    public void scheduledReconcile() {
+        try {
+            reconcileStock(autoRepair);
+        } catch (Exception e) {
+            log.error("库存对账失败", e);
+        }
+    }
+
+    @Override
+    public synchronized Map<String, Object> reconcileStock(boolean repair) {
+        long begin = System.currentTimeMillis();
+        int checked = 0;
+        int updated = 0;
+        List<Map<String, Object>> drifts = new ArrayList<>();
+        LocalDateTime endedAfter = LocalDateTime.now().minusDays(RECONCILE_ENDED_DAYS);
+        long cursor = 0;
+        List<SeckillVoucher> vouchers;
+        // 1.按voucher_id游标分页，只处理进行中和刚结束的券
+        while (!(vouchers = listPage(cursor, endedAfter)).isEmpty()) {
+            cursor = vouchers.get(vouchers.size() - 1).getVoucherId();
+            checked += vouchers.size();
+            updated += reconcilePage(vouchers, repair, drifts);
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("time", LocalDateTime.now());
+        report.put("checked", checked);
+        report.put("updated", updated);
+        report.put("drifts", drifts);
+        report.put("repaired", repair && !drifts.isEmpty());
+        report.put("costMillis", System.currentTimeMillis() - begin);
+        lastReport = report;
+        if (!drifts.isEmpty()) {
+            log.warn("库存对账发现 {} 张券不一致: {}", drifts.size(), drifts);
+        }
+        return report;
+    }
+
+    @Override
+    public Map<String, Object> queryLastReconcileReport() {
+        return lastReport;
+    }
+
+    private List<SeckillVoucher> listPage(long cursor, LocalDateTime endedAfter) {
+        return query()
+                .gt("voucher_id", cursor)
+                .gt("end_time", endedAfter)
+                .orderByAsc("voucher_id")
+                .last("limit " + VOUCHER_PAGE_SIZE)
+                .list();
+    }
+
+    /**
+     * 对一页券对账
+     * @return 本页回写了库存的券数量
+     */
+    private int reconcilePage(List<SeckillVoucher> vouchers, boolean repair, List<Map<String, Object>> drifts) {
+        List<Long> ids = vouchers.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList());
+        // 1.一次 GROUP BY 统计每张券的有效订单数
+        Map<Long, Long> orderCounts = countOrders(ids);
+        // 2.一次pipeline读取Redis库存和去重集合大小
+        List<Object> redisValues = readRedisStock(ids);
+
+        int updated = 0;
+        int offset = 0;
+        for (SeckillVoucher voucher : vouchers) {
+            Long voucherId = voucher.getVoucherId();
+            long orderCount = orderCounts.getOrDefault(voucherId, 0L);
+            long appliedCount = voucher.getAppliedOrders() == null ? 0 : voucher.getAppliedOrders();
+            long mysqlStock = voucher.getStock();
+            // 2.1.每张券每个周期最多一条UPDATE，applied_orders 做乐观锁，重复执行不会重复扣减
+            long delta = orderCount - appliedCount;
+            if (delta != 0) {
+                boolean success = update()
+                        .setSql("stock = stock - " + delta + ", applied_orders = " + orderCount)
+                        .eq("voucher_id", voucherId)
+                        .eq("applied_orders", appliedCount)
+                        .update();
+                if (success) {
+                    mysqlStock -= delta;
+                    updated++;
+                }
+            }
+            // 2.2.Redis库存 + 已抢到的用户数 应等于 MySQL库存 + 已扣减的订单数（都等于初始库存）
+            int shards = stockShards.shardCount(voucherId);
+            long redisStock = 0;
+            long reserved = 0;
+            for (int s = 0; s < shards; s++) {
+                Object stock = redisValues.get(offset + s);
+                redisStock += stock == null ? 0 : Long.parseLong(stock.toString());
+                reserved += (Long) redisValues.get(offset + shards + s);
+            }
+            offset += shards * 2;
+            long redisTotal = redisStock + reserved;
+            long mysqlTotal = mysqlStock + orderCount;
+            // 已落库的订单比Redis中的用户还多，说明Redis数据丢失
+            if (redisTotal != mysqlTotal || orderCount > reserved) {
+                Map<String, Object> drift = new LinkedHashMap<>();
+                drift.put("voucherId", voucherId);
+                drift.put("redisStock", redisStock);
+                drift.put("redisReserved", reserved);
+                drift.put("mysqlStock", mysqlStock);
+                drift.put("orderCount", orderCount);
+                drifts.add(drift);
+                if (repair) {
+                    drift.put("repair", repair(voucherId, shards, redisStock, reserved, mysqlStock, orderCount));
+                }
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * 以MySQL为准修复Redis库存。
+     * 活动确定未开始或已结束时没有扣减，直接重置；进行中以及没有活动时间的券按增量原子调整，不能整体覆盖，否则会抹掉读取之后的扣减导致超卖。
+     * 进行中的分片券不修复：本分片无库存时先记录用户再到其它分片扣减，跨分片扣减完成前以及全部售罄后，
+     * 这些用户都会被计入 库存 + 用户数，与真实不一致无法区分，只报告不修复
+     * @return 修复结果，写入对账报告
+     */
+    private String repair(Long voucherId, int shards, long redisStock, long reserved, long mysqlStock, long orderCount) {
+        // 1.确定未开始或已结束才整体重置；没有活动时间的券不受时间限制，按进行中处理
+        int window = windowCache.check(voucherId);
+        if (window == SeckillWindowCache.NOT_STARTED || window == SeckillWindowCache.ENDED) {
+            // 1.1.Redis库存 = MySQL库存 - 尚未落库的订单数
+            long inFlight = Math.max(0, reserved - orderCount);
+            stockShards.initStock(voucherId, (int) Math.max(0, mysqlStock - inFlight), shards);
+            return "reset";
+        }
+        if (shards > 1) {
+            return "skipped: sharded voucher on sale";
+        }
+        // 2.进行中：lua内比较读取时的值，一致才按差值调整
+        Long result = scriptRegistry.execute("stock_adjust", Long.class,
+                Arrays.asList(stockShards.stockKey(voucherId, 0, 1), stockShards.orderKey(voucherId, 0, 1)),
+                String.valueOf(redisStock + reserved), String.valueOf(mysqlStock + orderCount));
+        return result != null && result >= 0 ? "adjusted" : "skipped: changed since read";
+    }
+
+    /**
+     * 订单按用户分表，每个分片各自分组计数后累加
+     */
+    private Map<Long, Long> countOrders(List<Long> voucherIds) {
+        Map<Long, Long> counts = new HashMap<>(voucherIds.size());
+        for (List<Map<String, Object>> rows : orderShards.routeAll(() -> voucherOrderMapper.selectMaps(new QueryWrapper<VoucherOrder>()
+                .select("voucher_id", "count(*) AS cnt")
+                .in("voucher_id", voucherIds)
+                .ne("status", SystemConstants.ORDER_STATUS_CANCELLED)
+                .groupBy("voucher_id")))) {
+            for (Map<String, Object> row : rows) {
+                counts.merge(((Number) row.get("voucher_id")).longValue(), ((Number) row.get("cnt")).longValue(), Long::sum);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * 每张券依次返回：各分片库存(GET) ... 各分片去重集合大小(SCARD) ...
+     */
+    private List<Object> readRedisStock(List<Long> voucherIds) {
+        return stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                for (Long voucherId : voucherIds) {
+                    for (String key : stockShards.stockKeys(voucherId)) {
+                        operations.opsForValue().get(key);
+                    }
+                    for (String key : stockShards.orderKeys(voucherId)) {
+                        operations.opsForSet().size(key);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 启动完成后预热缺失的秒杀数据
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpOnStartup() {
+        try {
+            warmUp(false);
+        } catch (Exception e) {
+            log.error("秒杀数据预热失败", e);
+        }
+    }
+
+    @Override
+    public Map<String, Object> warmUp(boolean force) {
+        long begin = System.currentTimeMillis();
+        int scanned = 0;
+        int loaded = 0;
+        int kept = 0;
+        long users = 0;
+        LocalDateTime now = LocalDateTime.now();
+        long cursor = 0;
+        List<SeckillVoucher> vouchers;
+        // 1.按voucher_id游标分页读取未结束的券
+        while (!(vouchers = listPage(cursor, now)).isEmpty()) {
+            cursor = vouchers.get(vouchers.size() - 1).getVoucherId();
+            scanned += vouchers.size();
+            // 2.非强制模式只处理库存key缺失的券
+            List<SeckillVoucher> targets = force ? vouchers : filterMissing(vouchers);
+            if (targets.isEmpty()) {
+                continue;
+            }
+            Map<Long, Long> orderCounts = countOrders(
+                    targets.stream().map(SeckillVoucher::getVoucherId).collect(Collectors.toList()));
+            for (SeckillVoucher voucher : targets) {
+                // 2.1.活动进行中的券不覆盖已有库存，强制模式也只补齐缺失的分片
+                boolean overwrite = force && (now.isBefore(voucher.getBeginTime()) || now.isAfter(voucher.getEndTime()));
+                if (force && !overwrite) {
+                    kept++;
+                }
+                users += warmUpVoucher(voucher, orderCounts.getOrDefault(voucher.getVoucherId(), 0L), overwrite);
+                loaded++;
+            }
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("scanned", scanned);
+        report.put("loaded", loaded);
+        report.put("keptStock", kept);
+        report.put("users", users);
+        report.put("costMillis", System.currentTimeMillis() - begin);
+        log.info("秒杀数据预热完成: {}", report);
+        return report;
+    }
+
+    /**
+     * 一次pipeline检查本页券的库存key是否存在
+     */
+    private List<SeckillVoucher> filterMissing(List<SeckillVoucher> vouchers) {
+        List<Object> exists = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                for (SeckillVoucher voucher : vouchers) {
+                    operations.hasKey(stockShards.stockKeys(voucher.getVoucherId()).get(0));
+                }
+                return null;
+            }
+        });
+        List<SeckillVoucher> missing = new ArrayList<>();
+        for (int i = 0; i < vouchers.size(); i++) {
+            if (!Boolean.TRUE.equals(exists.get(i))) {
+                missing.add(vouchers.get(i));
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * 重建一张券的库存、活动时间和去重集合
+     * @param overwrite true 覆盖已有库存；false 只写入缺失的库存分片
+     * @return 写入去重集合的用户数
+     */
+    private long warmUpVoucher(SeckillVoucher voucher, long orderCount, boolean overwrite) {
+        Long voucherId = voucher.getVoucherId();
+        // 1.剩余库存 = MySQL库存 - 尚未从MySQL库存中扣减的订单数
+        long applied = voucher.getAppliedOrders() == null ? 0 : voucher.getAppliedOrders();
+        long stock = Math.max(0, voucher.getStock() - (orderCount - applied));
+        boolean written = true;
+        if (overwrite) {
+            stockShards.initStock(voucherId, (int) stock, stockShards.shardCount(voucherId));
+        } else {
+            written = stockShards.initStockIfAbsent(voucherId, (int) stock, stockShards.shardCount(voucherId)) > 0;
+        }
+        windowCache.save(voucherId, voucher.getBeginTime(), voucher.getEndTime());
+        // 2.逐个订单分片，按 user_id 游标分块读取下单用户，走 (voucher_id, user_id) 索引
+        long users = 0;
+        for (int shard = 0; shard < orderShards.shardCount(); shard++) {
+            users += orderShards.route(shard, () -> warmUpOrderUsers(voucherId));
+        }
+        // 2.1.写入了大于0的库存才清除各节点的售罄标记，库存仍为0时标记是正确的
+        if (written && stock > 0) {
+            soldOutCache.clear(voucherId);
+        }
+        // 3.直接写入MySQL的券同样登记到布隆过滤器，否则下次全量重建前秒杀请求会被拦截
+        bloomFilters.add(IdBloomFilters.VOUCHER, voucherId);
+        return users;
+    }
+
+    /**
+     * 把当前订单分片中该券的下单用户写入去重集合
+     */
+    private long warmUpOrderUsers(Long voucherId) {
+        long users = 0;
+        long userCursor = 0;
+        while (true) {
+            List<Object> userIds = voucherOrderMapper.selectObjs(new QueryWrapper<VoucherOrder>()
+                    .select("user_id")
+                    .eq("voucher_id", voucherId)
+                    .gt("user_id", userCursor)
+                    .ne("status", SystemConstants.ORDER_STATUS_CANCELLED)
+                    .orderByAsc("user_id")
+                    .last("limit " + WARM_UP_CHUNK_SIZE));
+            if (userIds.isEmpty()) {
+                break;
+            }
+            userCursor = ((Number) userIds.get(userIds.size() - 1)).longValue();
+            // 3.按用户所在去重分片分组，一个pipeline写入整块
+            Map<String, List<String>> byKey = new HashMap<>();
+            for (Object userId : userIds) {
+                byKey.computeIfAbsent(stockShards.orderKeyOfUser(voucherId, ((Number) userId).longValue()), k -> new ArrayList<>())
+                        .add(userId.toString());
+            }
+            stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object execute(RedisOperations operations) {
+                    byKey.forEach((key, members) -> operations.opsForSet().add(key, members.toArray()));
+                    return null;
+                }
+            });
+            users += userIds.size();
+            if (userIds.size() < WARM_UP_CHUNK_SIZE) {
+                break;
+            }
+        }
+        return users;
+    }
 }
@@ -10,6 +10,7 @@ import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.IdBloomFilters;
 import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisData;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,7 +23,6 @@ import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.function.Function;
 
 /**
  * <p>
@@ -37,29 +37,32 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 
     private final StringRedisTemplate stringRedisTemplate;
     private final CacheClient cacheClient;
+    private final IdBloomFilters bloomFilters;
 
-    public ShopServiceImpl(StringRedisTemplate stringRedisTemplate, CacheClient cacheClient) {
+    public ShopServiceImpl(StringRedisTemplate stringRedisTemplate, CacheClient cacheClient, IdBloomFilters bloomFilters) {
         this.stringRedisTemplate = stringRedisTemplate;
         this.cacheClient = cacheClient;
+        this.bloomFilters = bloomFilters;
+    }
+
+    @Override
+    public boolean save(Shop shop) {
+        boolean saved = super.save(shop);
+        if (saved) {
+            bloomFilters.add(IdBloomFilters.SHOP, shop.getId());
+        }
+        return saved;
     }
 
     @Override
-//    @Cacheable(cacheNames = "cache:shop", key = "#id")
     public Result queryById(Long id) {
-        //缓存穿透.redis和数据库中都没有，返回空值
-        //Shop shop = queryWithPassThrough(id);
-        Shop shop = cacheClient.queryWithPassThrough("cache:shop", id, Shop.class,
-                new Function<Long, Shop>() {
-                    @Override
-                    public Shop apply(Long id) {
-                        return getById(id);
-                    }
-                }, RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
-        //解决缓存击穿，使用互斥锁
-//         Shop shop = queryWithMutex(this, id);
-        //解决缓存击穿，使用逻辑过期
-//        Shop shop = queryWithLogicExpire(id);
-//        cacheClient.queryWithLogicalExpire("cache:shop", id,Shop.class,this::getById,RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        //布隆过滤器判断不存在的id，不访问缓存和数据库
+        if (!bloomFilters.mightContain(IdBloomFilters.SHOP, id)) {
+            return Result.fail("空");
+        }
+        //逻辑过期：过期后返回旧值并异步重建，大量店铺同时过期也不会集中查库
+        Shop shop = cacheClient.queryWithLogicalExpire(RedisConstants.CACHE_SHOP_KEY, id, Shop.class, this::getById,
+                RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
         if (shop == null) {
             return Result.fail("空");
         }
@@ -169,7 +172,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return Result.fail("错误ID");
         }
         updateById(shop);
-        stringRedisTemplate.delete("cache:shop:" + shop.getId());
+        cacheClient.delete(RedisConstants.CACHE_SHOP_KEY + shop.getId());
         return Result.ok();
     }
 
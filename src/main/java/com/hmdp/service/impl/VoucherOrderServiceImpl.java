@@ -1,5 +1,8 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.lang.UUID;
+import com.hmdp.dto.OrderStatusDTO;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
@@ -7,22 +10,77 @@ import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.IdBloomFilters;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RedisScriptRegistry;
+import com.hmdp.utils.SeckillRateLimiter;
+import com.hmdp.utils.SeckillScriptExecutor;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.SeckillWindowCache;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.VoucherOrderShards;
 import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.SoldOutCache;
 import com.hmdp.utils.UserHolder;
+import lombok.extern.slf4j.Slf4j;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.springframework.aop.framework.AopContext;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.ClassPathResource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.ORDER_STATUS_DONE_TTL;
+import static com.hmdp.utils.RedisConstants.ORDER_STATUS_KEY;
+import static com.hmdp.utils.RedisConstants.ORDER_STATUS_PENDING_TTL;
+import static com.hmdp.utils.RedisConstants.ORDER_UNPAID_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_IDEMPOTENCY_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_IDEMPOTENCY_TTL;
+import static com.hmdp.utils.RedisConstants.STREAM_ORDERS_DLQ_KEY;
+import static com.hmdp.utils.RedisConstants.STREAM_ORDERS_GROUP;
+import static com.hmdp.utils.RedisConstants.STREAM_ORDERS_KEY;
 
 /**
  * <p>
@@ -32,6 +90,7 @@ import java.util.concurrent.TimeUnit;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
@@ -39,44 +98,689 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private final RedisIdWorker redisIdWorker;
     private final StringRedisTemplate stringRedisTemplate;
     private final RedissonClient redissonClient;
+    private final SoldOutCache soldOutCache;
+    private final SeckillStockShards stockShards;
+    private final SeckillScriptExecutor seckillScriptExecutor;
+    private final SeckillWindowCache windowCache;
+    private final SeckillRateLimiter rateLimiter;
+    private final VoucherOrderShards orderShards;
+    private final RedisScriptRegistry scriptRegistry;
+    private final IdBloomFilters bloomFilters;
+    private final long unpaidTimeoutMillis;
 
-    public VoucherOrderServiceImpl(ISeckillVoucherService iSeckillVoucherService, RedisIdWorker redisIdWorker, StringRedisTemplate stringRedisTemplate, RedissonClient redissonClient) {
+    public VoucherOrderServiceImpl(ISeckillVoucherService iSeckillVoucherService, RedisIdWorker redisIdWorker, StringRedisTemplate stringRedisTemplate, RedissonClient redissonClient, SoldOutCache soldOutCache, SeckillStockShards stockShards, SeckillScriptExecutor seckillScriptExecutor, SeckillWindowCache windowCache, SeckillRateLimiter rateLimiter, VoucherOrderShards orderShards, RedisScriptRegistry scriptRegistry, IdBloomFilters bloomFilters,
+                                   @Value("${hmdp.order.unpaid-timeout-seconds:900}") long unpaidTimeoutSeconds) {
         this.iSeckillVoucherService = iSeckillVoucherService;
         this.redisIdWorker = redisIdWorker;
 
         this.stringRedisTemplate = stringRedisTemplate;
         this.redissonClient = redissonClient;
+        this.soldOutCache = soldOutCache;
+        this.stockShards = stockShards;
+        this.seckillScriptExecutor = seckillScriptExecutor;
+        this.windowCache = windowCache;
+        this.rateLimiter = rateLimiter;
+        this.orderShards = orderShards;
+        this.scriptRegistry = scriptRegistry;
+        this.bloomFilters = bloomFilters;
+        this.unpaidTimeoutMillis = unpaidTimeoutSeconds * 1000;
+    }
+
+    /**
+     * seckill.lua 令牌桶拒绝
+     */
+    private static final int RATE_LIMITED = 6;
+
+    /**
+     * 组合秒杀一次最多包含的券数量
+     */
+    private static final int MAX_BUNDLE_SIZE = 10;
+
+    /**
+     * 客户端幂等键的最大长度
+     */
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 64;
+
+    /**
+     * 每次从 stream.orders 读取的最大消息数，一批消息合并成一条多行 INSERT
+     */
+    private static final int ORDER_BATCH_SIZE = 500;
+    private static final Duration ORDER_BLOCK_TIMEOUT = Duration.ofSeconds(2);
+    private static final String CONSUMER_NAME = "c-" + UUID.randomUUID().toString(true);
+    /**
+     * 本消费者pending-list的连续重试次数，超过后交给 recoverPendingOrders 处理
+     */
+    private static final int PENDING_RETRY_TIMES = 3;
+    /**
+     * 消息在pending-list中空闲超过该时长才会被其它消费者认领
+     */
+    private static final Duration PENDING_IDLE_TIMEOUT = Duration.ofSeconds(30);
+    private static final int PENDING_SCAN_COUNT = 100;
+    /**
+     * 消息最大投递次数，超过后转入死信队列
+     */
+    private static final long MAX_DELIVERY_COUNT = 5;
+    /**
+     * 每次从延迟队列取出的到期订单数
+     */
+    private static final int UNPAID_POLL_SIZE = 100;
+    /**
+     * 取消失败的订单重新放回延迟队列的等待时间
+     */
+    private static final long UNPAID_RETRY_MILLIS = 10_000L;
+
+    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    private volatile boolean running = true;
+
+    // 消费指标
+    private final LongAdder consumedCount = new LongAdder();
+    private final LongAdder insertedCount = new LongAdder();
+    private final LongAdder batchCount = new LongAdder();
+    private final LongAdder failedBatchCount = new LongAdder();
+    private final LongAdder recoveredCount = new LongAdder();
+    private final LongAdder deadLetterCount = new LongAdder();
+    private final LongAdder cancelledCount = new LongAdder();
+    private final LongAdder idempotentReplayCount = new LongAdder();
+    private final long startMillis = System.currentTimeMillis();
+    private volatile long lastLagMillis;
+    private volatile long lastBatchCostMillis;
+
+    @PostConstruct
+    private void init() {
+        createGroupIfAbsent();
+        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        SECKILL_ORDER_EXECUTOR.shutdown();
+    }
+
+    /**
+     * XGROUP CREATE stream.orders g1 0 MKSTREAM，组已存在时忽略
+     */
+    private void createGroupIfAbsent() {
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XGROUP",
+                    "CREATE".getBytes(StandardCharsets.UTF_8),
+                    STREAM_ORDERS_KEY.getBytes(StandardCharsets.UTF_8),
+                    STREAM_ORDERS_GROUP.getBytes(StandardCharsets.UTF_8),
+                    "0".getBytes(StandardCharsets.UTF_8),
+                    "MKSTREAM".getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            if (e.getMessage() == null || !e.getMessage().contains("BUSYGROUP")) {
+                log.error("创建消费者组失败", e);
+            }
+        }
+    }
+
+    /**
+     * 以本消费者身份读取 stream.orders。
+     * read 只有可变参数版本，传入泛型的 StreamOffset 会产生泛型数组警告，数组只在这里创建、不会被写入其它类型
+     */
+    @SuppressWarnings("unchecked")
+    private List<MapRecord<String, Object, Object>> readOrders(StreamReadOptions options, ReadOffset readOffset) {
+        StreamOffset<String> offset = StreamOffset.create(STREAM_ORDERS_KEY, readOffset);
+        return stringRedisTemplate.opsForStream().read(Consumer.from(STREAM_ORDERS_GROUP, CONSUMER_NAME), options, offset);
+    }
+
+    private class VoucherOrderHandler implements Runnable {
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    // 1.获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT n BLOCK 2000 STREAMS stream.orders >
+                    List<MapRecord<String, Object, Object>> list = readOrders(
+                            StreamReadOptions.empty().count(ORDER_BATCH_SIZE).block(ORDER_BLOCK_TIMEOUT), ReadOffset.lastConsumed());
+                    // 2.判断消息是否获取成功
+                    if (list == null || list.isEmpty()) {
+                        continue;
+                    }
+                    // 3.整批入库并确认
+                    handleVoucherOrderBatch(list);
+                } catch (Exception e) {
+                    log.error("处理订单异常", e);
+                    failedBatchCount.increment();
+                    handlePendingList();
+                }
+            }
+        }
+
+        /**
+         * 重新处理本消费者已读取但未确认的消息
+         */
+        private void handlePendingList() {
+            int failures = 0;
+            while (running && failures < PENDING_RETRY_TIMES) {
+                try {
+                    // 1.获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 COUNT n STREAMS stream.orders 0
+                    List<MapRecord<String, Object, Object>> list = readOrders(
+                            StreamReadOptions.empty().count(ORDER_BATCH_SIZE), ReadOffset.from("0"));
+                    // 2.pending-list为空，结束
+                    if (list == null || list.isEmpty()) {
+                        break;
+                    }
+                    handleVoucherOrderBatch(list);
+                } catch (Exception e) {
+                    log.error("处理pending-list订单异常", e);
+                    failedBatchCount.increment();
+                    failures++;
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 认领空闲超时的pending消息（包括已宕机消费者的消息）并重试，
+     * 整批失败时逐条重试，超过最大投递次数的消息转入死信队列
+     */
+    @Scheduled(fixedDelay = 5000)
+    public void recoverPendingOrders() {
+        // 1.XPENDING stream.orders g1 - + count
+        PendingMessages pending = stringRedisTemplate.opsForStream()
+                .pending(STREAM_ORDERS_KEY, STREAM_ORDERS_GROUP, Range.unbounded(), PENDING_SCAN_COUNT);
+        if (pending == null || pending.isEmpty()) {
+            return;
+        }
+        // 2.筛选空闲超时的消息
+        Map<RecordId, Long> deliveries = new HashMap<>();
+        for (PendingMessage message : pending) {
+            if (message.getElapsedTimeSinceLastDelivery().compareTo(PENDING_IDLE_TIMEOUT) >= 0) {
+                deliveries.put(message.getId(), message.getTotalDeliveryCount());
+            }
+        }
+        if (deliveries.isEmpty()) {
+            return;
+        }
+        // 3.XCLAIM 到本消费者，min-idle-time 保证多个节点不会重复认领
+        List<MapRecord<String, Object, Object>> claimed = claimPendingOrders(new ArrayList<>(deliveries.keySet()));
+        if (claimed.isEmpty()) {
+            return;
+        }
+        // 4.整批重试
+        try {
+            handleVoucherOrderBatch(claimed);
+            recoveredCount.add(claimed.size());
+            return;
+        } catch (Exception e) {
+            log.warn("pending订单整批重试失败，改为逐条重试", e);
+        }
+        // 5.逐条重试，隔离毒消息
+        for (MapRecord<String, Object, Object> record : claimed) {
+            try {
+                handleVoucherOrderBatch(Collections.singletonList(record));
+                recoveredCount.increment();
+            } catch (Exception e) {
+                // XCLAIM 本身会使投递次数 +1
+                long delivered = deliveries.getOrDefault(record.getId(), 0L) + 1;
+                if (delivered >= MAX_DELIVERY_COUNT) {
+                    moveToDeadLetter(record, delivered, e.toString());
+                } else {
+                    log.warn("订单消息 {} 第 {} 次处理失败", record.getId(), delivered, e);
+                }
+            }
+        }
     }
 
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    private List<MapRecord<String, Object, Object>> claimPendingOrders(List<RecordId> ids) {
+        List<ByteRecord> records = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                connection.streamCommands().xClaim(
+                        STREAM_ORDERS_KEY.getBytes(StandardCharsets.UTF_8),
+                        STREAM_ORDERS_GROUP,
+                        CONSUMER_NAME,
+                        RedisStreamCommands.XClaimOptions.minIdle(PENDING_IDLE_TIMEOUT).ids(ids)));
+        if (records == null) {
+            return Collections.emptyList();
+        }
+        List<MapRecord<String, Object, Object>> list = new ArrayList<>(records.size());
+        for (ByteRecord record : records) {
+            list.add(record.deserialize(StringRedisSerializer.UTF_8, StringRedisSerializer.UTF_8, StringRedisSerializer.UTF_8));
+        }
+        return list;
+    }
 
-    static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
+    /**
+     * 原消息连同失败原因写入 stream.orders.dlq，再从 stream.orders 中确认并删除
+     */
+    private void moveToDeadLetter(MapRecord<String, Object, Object> record, long delivered, String reason) {
+        log.error("订单消息 {} 处理失败 {} 次，转入死信队列: {}", record.getId(), delivered, reason);
+        Map<String, String> fields = new HashMap<>();
+        record.getValue().forEach((k, v) -> fields.put(k.toString(), String.valueOf(v)));
+        fields.put("originalId", record.getId().getValue());
+        fields.put("deliveries", String.valueOf(delivered));
+        fields.put("reason", reason);
+        stringRedisTemplate.opsForStream().add(STREAM_ORDERS_DLQ_KEY, fields);
+        ackAndDelete(record.getId());
+        // 订单状态：创建失败
+        Object orderId = record.getValue().get("id");
+        if (orderId != null) {
+            stringRedisTemplate.opsForValue().set(ORDER_STATUS_KEY + orderId,
+                    OrderStatusDTO.FAILED + ":" + record.getValue().get("userId"), ORDER_STATUS_DONE_TTL, TimeUnit.SECONDS);
+        }
+        deadLetterCount.increment();
+    }
+
+    @Override
+    public int replayDeadLetters(int count) {
+        List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().range(
+                STREAM_ORDERS_DLQ_KEY, Range.unbounded(), RedisZSetCommands.Limit.limit().count(count));
+        if (list == null || list.isEmpty()) {
+            return 0;
+        }
+        // 去掉死信附加字段后重新投递到 stream.orders，整批走一次pipeline
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                for (MapRecord<String, Object, Object> record : list) {
+                    Map<Object, Object> fields = new HashMap<>(record.getValue());
+                    fields.remove("originalId");
+                    fields.remove("deliveries");
+                    fields.remove("reason");
+                    operations.opsForStream().add(STREAM_ORDERS_KEY, fields);
+                    operations.opsForStream().delete(STREAM_ORDERS_DLQ_KEY, record.getId());
+                }
+                return null;
+            }
+        });
+        log.info("死信队列重放 {} 条订单消息", list.size());
+        return list.size();
+    }
+
+    /**
+     * ACK 后立即 XDEL，已入库的消息不再占用 stream 空间
+     */
+    private void ackAndDelete(RecordId... ids) {
+        ackAndDelete(Collections.emptyList(), ids);
+    }
+
+    /**
+     * 与 ACK/XDEL 同一个pipeline把订单状态改为已创建，并按下单时间加入未支付延迟队列
+     * @param persisted 已落库的订单，与 ids 一一对应
+     */
+    private void ackAndDelete(List<VoucherOrder> persisted, RecordId... ids) {
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                operations.opsForStream().acknowledge(STREAM_ORDERS_KEY, STREAM_ORDERS_GROUP, ids);
+                operations.opsForStream().delete(STREAM_ORDERS_KEY, ids);
+                Set<ZSetOperations.TypedTuple<String>> unpaid = new HashSet<>(persisted.size());
+                for (int i = 0; i < persisted.size(); i++) {
+                    VoucherOrder order = persisted.get(i);
+                    operations.opsForValue().set(ORDER_STATUS_KEY + order.getId(),
+                            OrderStatusDTO.PERSISTED + ":" + order.getUserId(), ORDER_STATUS_DONE_TTL, TimeUnit.SECONDS);
+                    // 支付截止时间从进入消息队列（秒杀成功）时算起，消息重投时score不变
+                    unpaid.add(new DefaultTypedTuple<>(unpaidMember(order),
+                            (double) (ids[i].getTimestamp() + unpaidTimeoutMillis)));
+                }
+                if (unpaidTimeoutMillis > 0 && !unpaid.isEmpty()) {
+                    operations.opsForZSet().add(ORDER_UNPAID_KEY, unpaid);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 一批消息 -> 每个分片一条多行 INSERT；全部提交成功后才 ACK，失败则消息留在 pending-list，
+     * 重试时已写入的分片由 INSERT IGNORE 跳过
+     */
+    private void handleVoucherOrderBatch(List<MapRecord<String, Object, Object>> records) {
+        long begin = System.currentTimeMillis();
+        List<VoucherOrder> orders = new ArrayList<>(records.size());
+        RecordId[] ids = new RecordId[records.size()];
+        for (int i = 0; i < records.size(); i++) {
+            MapRecord<String, Object, Object> record = records.get(i);
+            orders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+            ids[i] = record.getId();
+        }
+        int inserted = 0;
+        for (Map.Entry<Integer, List<VoucherOrder>> shard : orderShards.groupByUser(orders, VoucherOrder::getUserId).entrySet()) {
+            inserted += orderShards.route(shard.getKey(), () -> getBaseMapper().insertBatch(shard.getValue()));
+        }
+        ackAndDelete(orders, ids);
+
+        long end = System.currentTimeMillis();
+        consumedCount.add(records.size());
+        insertedCount.add(inserted);
+        batchCount.increment();
+        lastBatchCostMillis = end - begin;
+        // 消息id的毫秒部分就是XADD的时间，最早一条的等待时间即为消费延迟
+        lastLagMillis = end - ids[0].getTimestamp();
+    }
+
+    /**
+     * 延迟队列成员：订单id:券id:用户id，取消时无需回查订单表
+     */
+    private static String unpaidMember(VoucherOrder order) {
+        return order.getId() + ":" + order.getVoucherId() + ":" + order.getUserId();
+    }
+
+    /**
+     * 轮询未支付延迟队列，取消到期订单并归还库存和下单资格
+     */
+    @Scheduled(fixedDelay = 1000)
+    public void cancelExpiredOrders() {
+        if (unpaidTimeoutMillis <= 0) {
+            return;
+        }
+        try {
+            while (running) {
+                // 1.原子取出一批到期订单
+                List<?> members = scriptRegistry.execute("unpaid_poll", List.class,
+                        Collections.singletonList(ORDER_UNPAID_KEY),
+                        String.valueOf(System.currentTimeMillis()), String.valueOf(UNPAID_POLL_SIZE));
+                if (members == null || members.isEmpty()) {
+                    return;
+                }
+                for (Object member : members) {
+                    cancelExpiredOrder(member.toString());
+                }
+                if (members.size() < UNPAID_POLL_SIZE) {
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            log.error("取消超时未支付订单失败", e);
+        }
+    }
+
+    private void cancelExpiredOrder(String member) {
+        String[] parts = member.split(":");
+        Long orderId = Long.valueOf(parts[0]);
+        Long voucherId = Long.valueOf(parts[1]);
+        Long userId = Long.valueOf(parts[2]);
+        try {
+            // 2.仍是未支付状态才取消，已支付或已取消的直接跳过；按用户路由，分表前的旧订单同样能找到
+            boolean cancelled = orderShards.route(orderShards.shardOfUser(userId), () -> update()
+                    .set("status", SystemConstants.ORDER_STATUS_CANCELLED)
+                    .eq("id", orderId)
+                    .eq("status", SystemConstants.ORDER_STATUS_UNPAID)
+                    .update());
+            if (!cancelled) {
+                return;
+            }
+            // 3.库存还给用户所在分片，移出去重集合，允许再次抢购
+            int shards = stockShards.shardCount(voucherId);
+            int home = stockShards.homeShard(userId, shards);
+            List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object execute(RedisOperations operations) {
+                    operations.opsForValue().increment(stockShards.stockKey(voucherId, home, shards));
+                    operations.opsForSet().remove(stockShards.orderKey(voucherId, home, shards), userId.toString());
+                    operations.opsForValue().set(ORDER_STATUS_KEY + orderId,
+                            OrderStatusDTO.CANCELLED + ":" + userId, ORDER_STATUS_DONE_TTL, TimeUnit.SECONDS);
+                    return null;
+                }
+            });
+            // 4.库存已补充：该分片原本为0（可能已有节点标记售罄）或本节点有售罄标记时，才广播清除各节点的标记
+            boolean wasEmpty = Long.valueOf(1L).equals(results.get(0));
+            if (wasEmpty || soldOutCache.isSoldOut(voucherId)) {
+                soldOutCache.clear(voucherId);
+            }
+            cancelledCount.increment();
+        } catch (Exception e) {
+            log.error("取消订单 {} 失败，稍后重试", orderId, e);
+            stringRedisTemplate.opsForZSet().add(ORDER_UNPAID_KEY, member, System.currentTimeMillis() + UNPAID_RETRY_MILLIS);
+        }
+    }
+
+    @Override
+    public Result queryOrderStatus(Long orderId) {
+        Long userId = UserHolder.getUser().getId();
+        // 1.先查Redis中的状态记录，值为 状态:用户id
+        String record = stringRedisTemplate.opsForValue().get(ORDER_STATUS_KEY + orderId);
+        if (record != null) {
+            int split = record.indexOf(':');
+            if (split < 0 || !record.substring(split + 1).equals(userId.toString())) {
+                return Result.fail("订单不存在");
+            }
+            return Result.ok(new OrderStatusDTO(orderId, Integer.parseInt(record.substring(0, split))));
+        }
+        // 2.状态记录已过期，到当前用户所在分片查MySQL，其他用户的订单在这里查不到
+        VoucherOrder order = orderShards.route(orderShards.shardOfUser(userId), () -> getById(orderId));
+        if (order == null || !userId.equals(order.getUserId())) {
+            return Result.fail("订单不存在");
+        }
+        return Result.ok(new OrderStatusDTO(orderId, order.getStatus() != null && order.getStatus() == SystemConstants.ORDER_STATUS_CANCELLED
+                ? OrderStatusDTO.CANCELLED : OrderStatusDTO.PERSISTED));
+    }
+
+    @Override
+    public Map<String, Object> queryOrderStreamStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long consumed = consumedCount.sum();
+        long uptimeSeconds = Math.max(1, (System.currentTimeMillis() - startMillis) / 1000);
+        stats.put("consumer", CONSUMER_NAME);
+        stats.put("consumed", consumed);
+        stats.put("inserted", insertedCount.sum());
+        stats.put("batches", batchCount.sum());
+        stats.put("failedBatches", failedBatchCount.sum());
+        stats.put("recovered", recoveredCount.sum());
+        stats.put("deadLettered", deadLetterCount.sum());
+        stats.put("cancelledUnpaid", cancelledCount.sum());
+        stats.put("idempotentReplays", idempotentReplayCount.sum());
+        stats.put("unpaidQueueLength", stringRedisTemplate.opsForZSet().zCard(ORDER_UNPAID_KEY));
+        stats.put("throughputPerSecond", consumed / uptimeSeconds);
+        stats.put("lastBatchCostMillis", lastBatchCostMillis);
+        stats.put("lastLagMillis", lastLagMillis);
+        stats.put("streamLength", stringRedisTemplate.opsForStream().size(STREAM_ORDERS_KEY));
+        PendingMessagesSummary pending = stringRedisTemplate.opsForStream().pending(STREAM_ORDERS_KEY, STREAM_ORDERS_GROUP);
+        stats.put("pending", pending == null ? 0 : pending.getTotalPendingMessages());
+        stats.put("deadLetterLength", stringRedisTemplate.opsForStream().size(STREAM_ORDERS_DLQ_KEY));
+        stats.put("rateLimit", rateLimiter.stats());
+        stats.put("scripts", scriptRegistry.stats());
+        return stats;
     }
 
     @Override
     public Result seckillVoucher(Long voucherId) {
-           Long userId = UserHolder.getUser().getId();
-         long orderId = redisIdWorker.nextId("order");
-        // 1.执行lua脚本
-        Long result = stringRedisTemplate.execute(
-                SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(orderId)
+        return seckillVoucher(voucherId, null);
+    }
+
+    @Override
+    public Result seckillVoucher(Long voucherId, String idempotencyKey) {
+        Long userId = UserHolder.getUser().getId();
+        if (idempotencyKey != null && (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+            return Result.fail("幂等键长度须为1~" + MAX_IDEMPOTENCY_KEY_LENGTH);
+        }
+        // 0.布隆过滤器判断券不存在，不访问Redis
+        if (!bloomFilters.mightContain(IdBloomFilters.VOUCHER, voucherId)) {
+            return Result.fail("优惠券不存在");
+        }
+        String idemKey = idempotencyKey == null ? "" : SECKILL_IDEMPOTENCY_KEY + voucherId + ":" + userId + ":" + idempotencyKey;
+        // 0.本地预过滤请求过于频繁的用户
+        if (!rateLimiter.tryAcquireLocal(userId)) {
+            return replayOrFail(idemKey, "请求过于频繁");
+        }
+        // 0.1.本地已标记售罄，不再访问Redis
+        if (soldOutCache.isSoldOut(voucherId)) {
+            return replayOrFail(idemKey, "库存不足");
+        }
+        // 0.2.本地判断活动时间，明显未开始或已结束的请求不访问Redis
+        int window = windowCache.check(voucherId);
+        if (window != SeckillWindowCache.OPEN) {
+            return replayOrFail(idemKey, window == SeckillWindowCache.NOT_STARTED ? "秒杀未开始" : "秒杀已结束");
+        }
+        // 0.3.带幂等键的重试先查原订单，已下单时直接返回，不再生成订单id
+        Result replay = replay(idemKey);
+        if (replay != null) {
+            return replay;
+        }
+        long orderId = redisIdWorker.nextId("order", orderShards.gene(userId));
+        // 1.执行lua脚本（含幂等检查和令牌桶限流），优先扣减用户所在分片；批量模式下与并发请求合并成一次脚本调用
+        int shards = stockShards.shardCount(voucherId);
+        int home = stockShards.homeShard(userId, shards);
+        Object result = seckillScriptExecutor.execute(
+                Arrays.asList(stockShards.stockKey(voucherId, home, shards), stockShards.orderKey(voucherId, home, shards),
+                        windowCache.metaKey(voucherId), ORDER_STATUS_KEY + orderId, rateLimiter.limitKey(voucherId, userId), idemKey),
+                voucherId.toString(), userId.toString(), String.valueOf(orderId), shards > 1 ? "1" : "0",
+                ORDER_STATUS_PENDING_TTL.toString(), rateLimiter.defaultRate(), rateLimiter.defaultBurst(),
+                SECKILL_IDEMPOTENCY_TTL.toString()
         );
-        int r = result.intValue();
+        if (result instanceof String) {
+            // 1.1.并发重试在上面的检查之后才下单成功，返回原订单id，本次生成的id丢弃
+            idempotentReplayCount.increment();
+            return Result.ok(Long.valueOf((String) result));
+        }
+        int r = ((Number) result).intValue();
+        if (r == 3) {
+            // 1.2.用户所在分片已空，回退到其它分片
+            r = seckillFromOtherShards(voucherId, userId, orderId, home, shards, idemKey);
+        }
         // 2.判断结果是否为0
         if (r != 0) {
+            if (r == 1) {
+                soldOutCache.markSoldOut(voucherId);
+            } else if (r == RATE_LIMITED) {
+                rateLimiter.recordRejected();
+            }
             // 2.1.不为0 ，代表没有购买资格
-            return Result.fail(r == 1 ? "库存不足" : "不能重复下单");
+            return Result.fail(seckillFailMessage(r));
         }
 
         // 3.返回订单id
         return Result.ok(orderId);
     }
 
+    @Override
+    public Result seckillBundle(List<Long> voucherIds) {
+        Long userId = UserHolder.getUser().getId();
+        List<Long> vouchers = voucherIds == null ? Collections.emptyList() : voucherIds.stream().distinct().collect(Collectors.toList());
+        if (vouchers.isEmpty() || vouchers.size() > MAX_BUNDLE_SIZE) {
+            return Result.fail("一次最多抢购" + MAX_BUNDLE_SIZE + "张券");
+        }
+        // 0.本地预检，任意一张券不满足就不访问Redis
+        if (!rateLimiter.tryAcquireLocal(userId)) {
+            return Result.fail("请求过于频繁");
+        }
+        for (Long voucherId : vouchers) {
+            if (!bloomFilters.mightContain(IdBloomFilters.VOUCHER, voucherId)) {
+                return Result.fail(voucherId + " 优惠券不存在");
+            }
+            if (soldOutCache.isSoldOut(voucherId)) {
+                return Result.fail(voucherId + " 库存不足");
+            }
+            int window = windowCache.check(voucherId);
+            if (window != SeckillWindowCache.OPEN) {
+                return Result.fail(voucherId + " " + seckillFailMessage(window));
+            }
+        }
+        // 1.每张券一个订单id，库存分片从用户所在分片开始排列
+        List<String> keys = new ArrayList<>();
+        List<String> args = new ArrayList<>();
+        args.add(userId.toString());
+        args.add(ORDER_STATUS_PENDING_TTL.toString());
+        args.add(rateLimiter.defaultRate());
+        args.add(rateLimiter.defaultBurst());
+        List<Long> orderIds = new ArrayList<>(vouchers.size());
+        for (Long voucherId : vouchers) {
+            long orderId = redisIdWorker.nextId("order", orderShards.gene(userId));
+            orderIds.add(orderId);
+            int shards = stockShards.shardCount(voucherId);
+            int home = stockShards.homeShard(userId, shards);
+            keys.add(stockShards.orderKey(voucherId, home, shards));
+            keys.add(windowCache.metaKey(voucherId));
+            keys.add(rateLimiter.limitKey(voucherId, userId));
+            keys.add(ORDER_STATUS_KEY + orderId);
+            for (int i = 0; i < shards; i++) {
+                keys.add(stockShards.stockKey(voucherId, (home + i) % shards, shards));
+            }
+            args.add(voucherId.toString());
+            args.add(String.valueOf(orderId));
+            args.add(String.valueOf(shards));
+        }
+        // 2.一次lua调用完成全部券的校验和扣减，全部成功或全部失败
+        List<?> result = scriptRegistry.execute("seckill_bundle", List.class, keys, args.toArray());
+        int r = result == null ? -1 : ((Number) result.get(0)).intValue();
+        if (r != 0) {
+            if (r < 0) {
+                return Result.fail("秒杀失败");
+            }
+            Long failed = vouchers.get(((Number) result.get(1)).intValue() - 1);
+            if (r == 1) {
+                soldOutCache.markSoldOut(failed);
+            } else if (r == RATE_LIMITED) {
+                rateLimiter.recordRejected();
+            }
+            return Result.fail(failed + " " + seckillFailMessage(r));
+        }
+        // 3.按请求顺序返回各券的订单id
+        return Result.ok(orderIds);
+    }
+
+    private static String seckillFailMessage(int r) {
+        switch (r) {
+            case 1:
+                return "库存不足";
+            case 2:
+                return "不能重复下单";
+            case SeckillWindowCache.NOT_STARTED:
+                return "秒杀未开始";
+            case SeckillWindowCache.ENDED:
+                return "秒杀已结束";
+            case RATE_LIMITED:
+                return "请求过于频繁";
+            default:
+                return "秒杀失败";
+        }
+    }
+
+    /**
+     * 本地预检拒绝时，携带幂等键的请求可能是已成功订单的重试（如成功后券随即售罄），
+     * 此时查一次幂等记录，命中则返回原订单id
+     */
+    private Result replayOrFail(String idemKey, String message) {
+        Result replay = replay(idemKey);
+        return replay != null ? replay : Result.fail(message);
+    }
+
+    /**
+     * @return 幂等键已下单时返回原订单id，否则返回 null
+     */
+    private Result replay(String idemKey) {
+        if (idemKey.isEmpty()) {
+            return null;
+        }
+        String orderId = stringRedisTemplate.opsForValue().get(idemKey);
+        if (orderId == null) {
+            return null;
+        }
+        idempotentReplayCount.increment();
+        return Result.ok(Long.valueOf(orderId));
+    }
+
+    /**
+     * 用户已在所在分片预占去重位，依次尝试其它分片；全部售罄时释放预占
+     * @return 0 成功，1 库存不足
+     */
+    private int seckillFromOtherShards(Long voucherId, Long userId, long orderId, int home, int shards, String idemKey) {
+        for (int i = 1; i < shards; i++) {
+            int shard = (home + i) % shards;
+            Long result = scriptRegistry.execute(
+                    "seckill_shard", Long.class,
+                    Arrays.asList(stockShards.stockKey(voucherId, shard, shards), ORDER_STATUS_KEY + orderId, idemKey),
+                    voucherId.toString(), userId.toString(), String.valueOf(orderId), ORDER_STATUS_PENDING_TTL.toString(),
+                    SECKILL_IDEMPOTENCY_TTL.toString()
+            );
+            if (result != null && result == 0) {
+                return 0;
+            }
+        }
+        stringRedisTemplate.opsForSet().remove(stockShards.orderKey(voucherId, home, shards), userId.toString());
+        return 1;
+    }
+
 
     /*@Override
     public Result seckillVoucher(Long voucherId) throws InterruptedException {
@@ -123,17 +827,18 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
     public Result getResult(Long voucherId) {
         Long uid = UserHolder.getUser().getId();
-        Integer count = query().eq("user_id", uid).eq("voucher_id", voucherId).count();
+        int shard = orderShards.shardOfUser(uid);
+        Integer count = orderShards.route(shard, () -> query().eq("user_id", uid).eq("voucher_id", voucherId).count());
         if (count > 0) {
             return Result.fail("已存在");
         }
         VoucherOrder voucherOrder = new VoucherOrder();
-        long id = redisIdWorker.nextId("order");
+        long id = redisIdWorker.nextId("order", orderShards.gene(uid));
         voucherOrder.setId(id);
 
         voucherOrder.setUserId(uid);
         voucherOrder.setVoucherId(voucherId);
-        save(voucherOrder);
+        orderShards.route(shard, () -> save(voucherOrder));
         return Result.ok(id);
 
     }
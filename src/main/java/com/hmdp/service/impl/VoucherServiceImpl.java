@@ -7,12 +7,17 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.IdBloomFilters;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.SeckillWindowCache;
+import com.hmdp.utils.SoldOutCache;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -29,13 +34,34 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private ISeckillVoucherService seckillVoucherService;
     private final StringRedisTemplate stringRedisTemplate;
+    private final SoldOutCache soldOutCache;
+    private final SeckillStockShards stockShards;
+    private final SeckillWindowCache windowCache;
+    private final IdBloomFilters bloomFilters;
 
-    public VoucherServiceImpl(StringRedisTemplate stringRedisTemplate) {
+    public VoucherServiceImpl(StringRedisTemplate stringRedisTemplate, SoldOutCache soldOutCache, SeckillStockShards stockShards, SeckillWindowCache windowCache, IdBloomFilters bloomFilters) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.soldOutCache = soldOutCache;
+        this.stockShards = stockShards;
+        this.windowCache = windowCache;
+        this.bloomFilters = bloomFilters;
+    }
+
+    @Override
+    public boolean save(Voucher voucher) {
+        boolean saved = super.save(voucher);
+        if (saved) {
+            bloomFilters.add(IdBloomFilters.VOUCHER, voucher.getId());
+        }
+        return saved;
     }
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
+        // 店铺不存在时不查询数据库
+        if (!bloomFilters.mightContain(IdBloomFilters.SHOP, shopId)) {
+            return Result.ok(Collections.emptyList());
+        }
         // 查询优惠券信息
         List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
         // 返回结果
@@ -55,6 +81,11 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
 
-        stringRedisTemplate.opsForValue().set("seckill:stock:"+voucher.getId(),voucher.getStock().toString());
+        // 保存秒杀库存到Redis，热点券按配置拆成多个分片
+        stockShards.initStock(voucher.getId(), voucher.getStock(), stockShards.decideShards(voucher.getStock()));
+        // 保存活动时间，供lua脚本和本地预检判断
+        windowCache.save(voucher.getId(), voucher.getBeginTime(), voucher.getEndTime());
+        // 库存已补充，清除各节点的售罄标记
+        soldOutCache.clear(voucher.getId());
     }
 }
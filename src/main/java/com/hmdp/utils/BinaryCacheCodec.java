@@ -0,0 +1,401 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 紧凑二进制编码，按类生成字段结构（schema）后直接读写字段，不经过JSON中间对象。
+ * 格式：版本(1字节) + 类结构指纹(4字节) + 逻辑过期时间epoch毫秒(8字节) + 空值位图 + 按字段名顺序的非空字段值。
+ * 整数为zigzag变长编码，字符串为长度 + UTF-8，LocalDateTime 为UTC秒数 + 纳秒。
+ * 类增删改字段后指纹变化，旧数据解码返回 null 按未命中重新加载；包含不支持的字段类型的类退回 JSON 编码。
+ */
+public class BinaryCacheCodec implements CacheCodec {
+
+    public static final String NAME = "binary";
+    /**
+     * 格式版本，同时用于和JSON区分：JSON文本不会以控制字符开头
+     */
+    public static final byte VERSION = 1;
+    private static final int HEADER_LENGTH = 1 + Integer.BYTES + Long.BYTES;
+
+    private final CacheCodec fallback;
+    private final Map<Class<?>, Optional<Schema>> schemas = new ConcurrentHashMap<>();
+
+    /**
+     * @param fallback 不支持的类使用的编码
+     */
+    public BinaryCacheCodec(CacheCodec fallback) {
+        this.fallback = fallback;
+    }
+
+    public static boolean isBinary(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == VERSION;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Object value, long expireMillis) {
+        Schema schema = value == null ? null : schema(value.getClass());
+        if (schema == null) {
+            return fallback.encode(value, expireMillis);
+        }
+        Output out = new Output(HEADER_LENGTH + schema.fields.length * 8);
+        // 1.固定头
+        out.writeByte(VERSION);
+        out.writeInt(schema.fingerprint);
+        out.writeLong(expireMillis);
+        // 2.空值位图，写完字段后回填
+        int bitmap = out.skip((schema.fields.length + 7) / 8);
+        // 3.字段
+        for (int i = 0; i < schema.fields.length; i++) {
+            Object fieldValue = schema.get(i, value);
+            if (fieldValue == null) {
+                out.buf[bitmap + (i >>> 3)] |= 1 << (i & 7);
+            } else {
+                schema.types[i].write(out, fieldValue);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public <R> CacheEntry<R> decode(byte[] bytes, Class<R> type) {
+        if (bytes.length < HEADER_LENGTH || bytes[0] != VERSION) {
+            return null;
+        }
+        Input in = new Input(bytes, 1);
+        int fingerprint = in.readInt();
+        long expireMillis = in.readLong();
+        Schema schema = schema(type);
+        if (schema == null || schema.fingerprint != fingerprint) {
+            return null;
+        }
+        int bitmap = in.skip((schema.fields.length + 7) / 8);
+        Object value = schema.newInstance();
+        for (int i = 0; i < schema.fields.length; i++) {
+            if ((bytes[bitmap + (i >>> 3)] & (1 << (i & 7))) == 0) {
+                schema.set(i, value, schema.types[i].read(in));
+            }
+        }
+        return new CacheEntry<>(type.cast(value), expireMillis);
+    }
+
+    /**
+     * @return 不支持的类返回 null
+     */
+    private Schema schema(Class<?> type) {
+        return schemas.computeIfAbsent(type, t -> Optional.ofNullable(Schema.of(t))).orElse(null);
+    }
+
+    private enum FieldType {
+        LONG {
+            @Override
+            void write(Output out, Object value) {
+                out.writeVarLong((Long) value);
+            }
+
+            @Override
+            Object read(Input in) {
+                return in.readVarLong();
+            }
+        },
+        INT {
+            @Override
+            void write(Output out, Object value) {
+                out.writeVarLong((Integer) value);
+            }
+
+            @Override
+            Object read(Input in) {
+                return (int) in.readVarLong();
+            }
+        },
+        DOUBLE {
+            @Override
+            void write(Output out, Object value) {
+                out.writeLong(Double.doubleToRawLongBits((Double) value));
+            }
+
+            @Override
+            Object read(Input in) {
+                return Double.longBitsToDouble(in.readLong());
+            }
+        },
+        BOOLEAN {
+            @Override
+            void write(Output out, Object value) {
+                out.writeByte((Boolean) value ? 1 : 0);
+            }
+
+            @Override
+            Object read(Input in) {
+                return in.readByte() != 0;
+            }
+        },
+        STRING {
+            @Override
+            void write(Output out, Object value) {
+                byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+                out.writeVarLong(bytes.length);
+                out.writeBytes(bytes);
+            }
+
+            @Override
+            Object read(Input in) {
+                int length = (int) in.readVarLong();
+                int offset = in.skip(length);
+                return new String(in.buf, offset, length, StandardCharsets.UTF_8);
+            }
+        },
+        DATE_TIME {
+            @Override
+            void write(Output out, Object value) {
+                LocalDateTime time = (LocalDateTime) value;
+                out.writeVarLong(time.toEpochSecond(ZoneOffset.UTC));
+                out.writeVarLong(time.getNano());
+            }
+
+            @Override
+            Object read(Input in) {
+                long seconds = in.readVarLong();
+                return LocalDateTime.ofEpochSecond(seconds, (int) in.readVarLong(), ZoneOffset.UTC);
+            }
+        };
+
+        abstract void write(Output out, Object value);
+
+        abstract Object read(Input in);
+
+        static FieldType of(Class<?> type) {
+            if (type == Long.class || type == long.class) {
+                return LONG;
+            }
+            if (type == Integer.class || type == int.class) {
+                return INT;
+            }
+            if (type == Double.class || type == double.class) {
+                return DOUBLE;
+            }
+            if (type == Boolean.class || type == boolean.class) {
+                return BOOLEAN;
+            }
+            if (type == String.class) {
+                return STRING;
+            }
+            if (type == LocalDateTime.class) {
+                return DATE_TIME;
+            }
+            return null;
+        }
+    }
+
+    private static final class Schema {
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+        private final FieldType[] types;
+        private final int fingerprint;
+
+        private Schema(Constructor<?> constructor, Field[] fields, FieldType[] types, int fingerprint) {
+            this.constructor = constructor;
+            this.fields = fields;
+            this.types = types;
+            this.fingerprint = fingerprint;
+        }
+
+        /**
+         * 收集类及父类的实例字段，按 声明类 + 字段名 排序，保证各节点顺序一致
+         * @return 没有无参构造或包含不支持的字段类型时返回 null
+         */
+        private static Schema of(Class<?> type) {
+            Constructor<?> constructor;
+            try {
+                constructor = type.getDeclaredConstructor();
+                constructor.setAccessible(true);
+            } catch (NoSuchMethodException | RuntimeException e) {
+                return null;
+            }
+            List<Field> fields = new ArrayList<>();
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                        fields.add(field);
+                    }
+                }
+            }
+            fields.sort(Comparator.comparing((Field f) -> f.getDeclaringClass().getName()).thenComparing(Field::getName));
+            FieldType[] types = new FieldType[fields.size()];
+            StringBuilder signature = new StringBuilder(type.getName());
+            for (int i = 0; i < fields.size(); i++) {
+                Field field = fields.get(i);
+                types[i] = FieldType.of(field.getType());
+                if (types[i] == null) {
+                    return null;
+                }
+                try {
+                    field.setAccessible(true);
+                } catch (RuntimeException e) {
+                    return null;
+                }
+                signature.append(';').append(field.getName()).append(':').append(types[i]);
+            }
+            return new Schema(constructor, fields.toArray(new Field[0]), types, MurmurHash.hash32(signature));
+        }
+
+        private Object newInstance() {
+            try {
+                return constructor.newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("无法创建 " + constructor.getDeclaringClass().getName(), e);
+            }
+        }
+
+        private Object get(int i, Object target) {
+            try {
+                return fields[i].get(target);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private void set(int i, Object target, Object value) {
+            try {
+                fields[i].set(target, value);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static final class Output {
+        private byte[] buf;
+        private int pos;
+
+        private Output(int capacity) {
+            this.buf = new byte[capacity];
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+            }
+        }
+
+        /**
+         * @return 跳过区域的起始位置
+         */
+        private int skip(int n) {
+            ensure(n);
+            int start = pos;
+            pos += n;
+            return start;
+        }
+
+        private void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        private void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        private void writeInt(int v) {
+            ensure(Integer.BYTES);
+            for (int i = Integer.BYTES - 1; i >= 0; i--) {
+                buf[pos++] = (byte) (v >>> (i * 8));
+            }
+        }
+
+        private void writeLong(long v) {
+            ensure(Long.BYTES);
+            for (int i = Long.BYTES - 1; i >= 0; i--) {
+                buf[pos++] = (byte) (v >>> (i * 8));
+            }
+        }
+
+        private void writeVarLong(long v) {
+            ensure(10);
+            long zigzag = (v << 1) ^ (v >> 63);
+            while ((zigzag & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((zigzag & 0x7F) | 0x80);
+                zigzag >>>= 7;
+            }
+            buf[pos++] = (byte) zigzag;
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    private static final class Input {
+        private final byte[] buf;
+        private int pos;
+
+        private Input(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        private int skip(int n) {
+            if (n < 0 || pos + n > buf.length) {
+                throw new IllegalArgumentException("缓存数据不完整");
+            }
+            int start = pos;
+            pos += n;
+            return start;
+        }
+
+        private byte readByte() {
+            return buf[pos++];
+        }
+
+        private int readInt() {
+            int v = 0;
+            for (int i = 0; i < Integer.BYTES; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        private long readLong() {
+            long v = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        private long readVarLong() {
+            long zigzag = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buf[pos++];
+                zigzag |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return (zigzag >>> 1) ^ -(zigzag & 1);
+                }
+            }
+            throw new IllegalArgumentException("变长整数过长");
+        }
+    }
+}
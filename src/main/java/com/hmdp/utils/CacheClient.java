@@ -1,106 +1,684 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.RandomUtil;
 import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
-import com.hmdp.entity.Shop;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
-
+/**
+ * 缓存工具。
+ * queryWithPassThrough 为两级缓存：L1 为进程内 Caffeine（W-TinyLFU 淘汰，按key前缀设置过期时间），L2 为Redis。
+ * L1 缓存的是反序列化后的对象，调用方不能修改返回值；通过 {@link #delete} 删除时经 Redis pub/sub 通知所有节点清除L1。
+ * queryWithLogicalExpire 同样经过L1，过期后返回旧值并异步重建。
+ * 未命中时同一key在本节点只有一个线程查询数据库（单飞），跨节点由Redis锁互斥。
+ * 访问由 {@link HotKeys} 抽样统计，热点key在L1之前另有一份短TTL的本地副本。
+ * Redis中的值由 {@link CacheCodec} 编码（hmdp.cache.codec），读取时按首字节识别二进制或JSON格式，空值为空串。
+ */
 @Component
 @Slf4j
-public class CacheClient {
+public class CacheClient implements MessageListener {
+
+    /**
+     * L1 中表示数据库不存在的空值
+     */
+    private static final Object NULL_VALUE = new Object();
+    /**
+     * 读Redis时表示key不存在
+     */
+    private static final Object MISSING = new Object();
+    /**
+     * Redis中表示数据库不存在的空值
+     */
+    private static final byte[] EMPTY = new byte[0];
+    private static final long LOCK_RETRY_MILLIS = 50;
+    private static final String CACHE_KEY_PREFIX = "cache:";
+    private static final String LOCK_KEY_PREFIX = "lock:";
+
     private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final HotKeys hotKeys;
+    private final RedisScriptRegistry scriptRegistry;
+    private final JsonCacheCodec jsonCodec = new JsonCacheCodec();
+    private final BinaryCacheCodec binaryCodec = new BinaryCacheCodec(jsonCodec);
+    /**
+     * 写入使用的编码
+     */
+    private final CacheCodec codec;
+    private final boolean localEnabled;
+    private final Map<String, Long> localTtlSeconds;
+    private final long localDefaultTtlSeconds;
+    private final Cache<String, Object> localCache;
+    /**
+     * 逻辑过期数据的重建线程池，队列有界
+     */
+    private final ThreadPoolExecutor rebuildExecutor;
+    /**
+     * 本节点正在重建的key
+     */
+    private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+    /**
+     * 本节点正在同步加载的key
+     */
+    private final ConcurrentHashMap<String, CompletableFuture<Object>> loading = new ConcurrentHashMap<>();
+    private final long loadTimeoutMillis;
+    /**
+     * 单飞等待者的最长等待时间：持锁线程最多等锁 load-timeout-millis，之后还要查一次数据库
+     */
+    private final long waitTimeoutMillis;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    // L2 指标，L1 指标由 Caffeine 统计
+    private final LongAdder redisHits = new LongAdder();
+    private final LongAdder redisNullHits = new LongAdder();
+    private final LongAdder redisMisses = new LongAdder();
+    // 逻辑过期重建指标
+    private final LongAdder staleServed = new LongAdder();
+    private final LongAdder refreshed = new LongAdder();
+    private final LongAdder refreshFailed = new LongAdder();
+    private final LongAdder refreshSkipped = new LongAdder();
+    private final LongAdder refreshRejected = new LongAdder();
+    // 缓存未命中时的加载指标
+    private final LongAdder dbLoads = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder lockWaits = new LongAdder();
+    private final LongAdder loadTimeouts = new LongAdder();
+    // 编码指标
+    private final LongAdder legacyReads = new LongAdder();
+    private final LongAdder decodeFailures = new LongAdder();
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer, HotKeys hotKeys,
+                       RedisScriptRegistry scriptRegistry,
+                       @Value("${hmdp.cache.local.enabled:true}") boolean localEnabled,
+                       @Value("${hmdp.cache.local.maximum-size:10000}") long localMaximumSize,
+                       @Value("${hmdp.cache.local.default-ttl-seconds:30}") long localDefaultTtlSeconds,
+                       @Value("#{${hmdp.cache.local.ttl-seconds:{:}}}") Map<String, Long> localTtlSeconds,
+                       @Value("${hmdp.cache.rebuild.threads:4}") int rebuildThreads,
+                       @Value("${hmdp.cache.rebuild.queue-capacity:1000}") int rebuildQueueCapacity,
+                       @Value("${hmdp.cache.load-timeout-millis:3000}") long loadTimeoutMillis,
+                       @Value("${hmdp.cache.db-load-budget-millis:3000}") long dbLoadBudgetMillis,
+                       @Value("${hmdp.cache.codec:binary}") String codecName) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.hotKeys = hotKeys;
+        this.scriptRegistry = scriptRegistry;
+        if (!BinaryCacheCodec.NAME.equals(codecName) && !JsonCacheCodec.NAME.equals(codecName)) {
+            throw new IllegalArgumentException("不支持的缓存编码: " + codecName);
+        }
+        this.codec = BinaryCacheCodec.NAME.equals(codecName) ? binaryCodec : jsonCodec;
+        this.localEnabled = localEnabled;
+        this.localDefaultTtlSeconds = localDefaultTtlSeconds;
+        this.localTtlSeconds = localTtlSeconds;
+        this.loadTimeoutMillis = loadTimeoutMillis;
+        this.waitTimeoutMillis = loadTimeoutMillis + dbLoadBudgetMillis;
+        this.localCache = Caffeine.newBuilder()
+                .maximumSize(localMaximumSize)
+                .expireAfter(new Expiry<String, Object>() {
+                    @Override
+                    public long expireAfterCreate(String key, Object value, long currentTime) {
+                        return TimeUnit.SECONDS.toNanos(localTtl(key));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Object value, long currentTime, long currentDuration) {
+                        return TimeUnit.SECONDS.toNanos(localTtl(key));
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Object value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        this.rebuildExecutor = new ThreadPoolExecutor(rebuildThreads, rebuildThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(rebuildQueueCapacity));
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.CACHE_INVALIDATE_CHANNEL));
+    }
+
+    @PreDestroy
+    private void destroy() {
+        rebuildExecutor.shutdown();
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value), time, unit);
+        writeBytes(key, codec.encode(value, 0), unit.toMillis(time));
     }
 
     public void setwithLogicalExpire(String key, Object value, Long time, TimeUnit unit) {// 设置逻辑过期
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
-        //号入Redis
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        //号入Redis，不设置TTL
+        writeBytes(key, codec.encode(value, System.currentTimeMillis() + unit.toMillis(time)), 0);
+    }
+
+    /**
+     * 删除缓存并广播，各节点（包括本节点）收到后清除L1
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        localCache.invalidate(key);
+        hotKeys.invalidate(key);
+        stringRedisTemplate.convertAndSend(RedisConstants.CACHE_INVALIDATE_CHANNEL, key);
     }
 
     public <R, ID> R queryWithPassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback
             , Long time, TimeUnit unit) {
         String key = keyPrefix + id;
-        String Json = stringRedisTemplate.opsForValue().get(key);
-        if (StrUtil.isNotBlank(Json)) {
-            return JSONUtil.toBean(Json, type);
+        hotKeys.record(key);
+        // 1.查本地副本
+        Object local = getLocal(key);
+        if (local != null) {
+            return local == NULL_VALUE ? null : type.cast(local);
         }
-        if (Json != null) {
-            return null;
+        // 2.查L2
+        Object cached = readPassThrough(key, type);
+        if (cached != MISSING) {
+            (cached == NULL_VALUE ? redisNullHits : redisHits).increment();
+            putLocal(key, cached);
+            return cached == NULL_VALUE ? null : type.cast(cached);
         }
+        // 3.查数据库：本节点同一key只有一个线程加载，其它线程等待其结果；跨节点由Redis锁互斥
+        redisMisses.increment();
+        return singleFlight(key, () -> loadWithLock(key,
+                () -> readPassThrough(key, type),
+                () -> loadPassThrough(key, id, dbFallback, time, unit)));
+    }
+
+    /**
+     * 读Redis：key不存在返回 MISSING，空值返回 NULL_VALUE
+     */
+    private <R> Object readPassThrough(String key, Class<R> type) {
+        byte[] bytes = readBytes(key);
+        if (bytes == null) {
+            return MISSING;
+        }
+        if (bytes.length == 0) {
+            return NULL_VALUE;
+        }
+        CacheEntry<R> entry = decode(key, bytes, type);
+        return entry == null ? MISSING : entry.getValue();
+    }
+
+    private <R, ID> R loadPassThrough(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
         R r = dbFallback.apply(id);
         if (r == null) {
-            stringRedisTemplate.opsForValue().set(key, "", RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES);
+            writeBytes(key, EMPTY, TimeUnit.MINUTES.toMillis(RedisConstants.CACHE_NULL_TTL));
+            putLocal(key, null);
             return null;
         }
         this.set(key, r, time, unit);
+        putLocal(key, r);
         return r;
+    }
 
+    /**
+     * 批量查询（与 queryWithPassThrough 使用相同的缓存格式）：L1 -> 一次 MGET -> 一次批量查库 -> 一次pipeline回写，
+     * 代替逐个id查询的N次往返；Redis中的空值视为不存在，不再查库
+     * @param batchDbFallback 按id批量查询数据库，如 listByIds
+     * @param idGetter 从查询结果中取id
+     * @return id -> 数据，按ids的顺序，不存在的id不在结果中
+     */
+    public <R, ID> Map<ID, R> queryBatch(String keyPrefix, Collection<ID> ids, Class<R> type,
+                                         Function<List<ID>, List<R>> batchDbFallback, Function<R, ID> idGetter,
+                                         Long time, TimeUnit unit) {
+        Map<ID, R> result = new LinkedHashMap<>();
+        List<ID> distinct = ids.stream().distinct().collect(Collectors.toList());
+        // 1.查本地副本
+        List<ID> remote = new ArrayList<>(distinct.size());
+        for (ID id : distinct) {
+            hotKeys.record(keyPrefix + id);
+            Object local = getLocal(keyPrefix + id);
+            if (local == null) {
+                remote.add(id);
+            } else if (local != NULL_VALUE) {
+                result.put(id, type.cast(local));
+            }
+        }
+        if (remote.isEmpty()) {
+            return sortByIds(distinct, result);
+        }
+        // 2.一次MGET查L2
+        byte[][] keys = remote.stream().map(id -> rawKey(keyPrefix + id)).toArray(byte[][]::new);
+        List<byte[]> values = stringRedisTemplate.execute((RedisCallback<List<byte[]>>) connection -> connection.mGet(keys));
+        List<ID> misses = new ArrayList<>();
+        for (int i = 0; i < remote.size(); i++) {
+            ID id = remote.get(i);
+            byte[] bytes = values == null ? null : values.get(i);
+            if (bytes != null && bytes.length == 0) {
+                redisNullHits.increment();
+                putLocal(keyPrefix + id, null);
+                continue;
+            }
+            CacheEntry<R> entry = bytes == null ? null : decode(keyPrefix + id, bytes, type);
+            if (entry == null) {
+                misses.add(id);
+            } else {
+                redisHits.increment();
+                result.put(id, entry.getValue());
+                putLocal(keyPrefix + id, entry.getValue());
+            }
+        }
+        if (misses.isEmpty()) {
+            return sortByIds(distinct, result);
+        }
+        // 3.一次批量查库
+        redisMisses.add(misses.size());
+        dbLoads.increment();
+        Map<ID, R> loaded = new HashMap<>(misses.size() * 2);
+        for (R r : batchDbFallback.apply(misses)) {
+            loaded.put(idGetter.apply(r), r);
+        }
+        // 4.一次pipeline回写，数据库不存在的写入空值；过期时间加随机抖动，避免同一批数据同时过期
+        long millis = unit.toMillis(time);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (ID id : misses) {
+                R r = loaded.get(id);
+                if (r == null) {
+                    connection.set(rawKey(keyPrefix + id), EMPTY,
+                            Expiration.from(RedisConstants.CACHE_NULL_TTL, TimeUnit.MINUTES), RedisStringCommands.SetOption.upsert());
+                } else {
+                    connection.set(rawKey(keyPrefix + id), codec.encode(r, 0),
+                            Expiration.milliseconds(millis + RandomUtil.randomLong(millis / 10 + 1)), RedisStringCommands.SetOption.upsert());
+                }
+            }
+            return null;
+        });
+        for (ID id : misses) {
+            R r = loaded.get(id);
+            putLocal(keyPrefix + id, r);
+            if (r != null) {
+                result.put(id, r);
+            }
+        }
+        return sortByIds(distinct, result);
     }
 
+    private static <R, ID> Map<ID, R> sortByIds(List<ID> ids, Map<ID, R> found) {
+        Map<ID, R> sorted = new LinkedHashMap<>(found.size() * 2);
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                sorted.put(id, r);
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * 逻辑过期（stale-while-revalidate）：Redis中的数据不设置TTL，逻辑过期后仍直接返回旧值，
+     * 由后台线程在分布式锁保护下重建并写回；只有key不存在时才同步查询数据库
+     */
     public <R, ID> R queryWithLogicalExpire(String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback
             , Long time, TimeUnit unit) {
         String key = keyPrefix + id;
-        String Json = stringRedisTemplate.opsForValue().get(key);
-        if (StrUtil.isBlank(Json)) {
+        hotKeys.record(key);
+        // 1.查本地副本，未逻辑过期直接返回
+        Object local = getLocal(key);
+        if (local == NULL_VALUE) {
             return null;
         }
-        //命中，先吧json反序列化
-        RedisData redisData = JSONUtil.toBean(Json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
-        if (expireTime.isAfter(LocalDateTime.now())) {
-            return r;
+        if (local instanceof CacheEntry && !((CacheEntry<?>) local).isExpired()) {
+            return type.cast(((CacheEntry<?>) local).getValue());
         }
-        String lockKey = "lock:shop:" + id;
-        boolean lock = tryLock(lockKey);
-        if (lock) {
-            CACHE_REBUILD_EXECUTOR.submit(
+        // 2.查L2
+        Object cached = readLogical(key, type);
+        if (cached == NULL_VALUE) {
+            redisNullHits.increment();
+            putLocal(key, null);
+            return null;
+        }
+        if (cached == MISSING) {
+            // 3.key不存在（或不是逻辑过期格式），同步查询数据库，同样合并本节点的并发加载并与其它节点互斥
+            redisMisses.increment();
+            return singleFlight(key, () -> loadWithLock(key,
                     () -> {
-                        try {
-                            R r1 = dbFallback.apply(id);
-                            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(r1), RedisConstants.CACHE_SHOP_TTL, TimeUnit.MINUTES);
-                            return r1;
-                        } catch (Exception e) {
-                            throw new RuntimeException(e);
-                        } finally {
-                            unLock(lockKey);
-                        }
-                    });
+                        Object current = readLogical(key, type);
+                        return current instanceof CacheEntry ? ((CacheEntry<?>) current).getValue() : current;
+                    },
+                    () -> loadLogical(key, id, dbFallback, time, unit)));
+        }
+        redisHits.increment();
+        CacheEntry<?> entry = (CacheEntry<?>) cached;
+        putLocal(key, entry);
+        if (entry.isExpired()) {
+            // 4.已逻辑过期：返回旧值，异步重建
+            staleServed.increment();
+            refreshAsync(key, id, dbFallback, time, unit);
+        }
+        return type.cast(entry.getValue());
+    }
+
+    /**
+     * 读Redis中的逻辑过期数据：key不存在或没有逻辑过期时间返回 MISSING，空值返回 NULL_VALUE，否则返回 CacheEntry
+     */
+    private <R> Object readLogical(String key, Class<R> type) {
+        byte[] bytes = readBytes(key);
+        if (bytes == null) {
+            return MISSING;
+        }
+        if (bytes.length == 0) {
+            return NULL_VALUE;
+        }
+        CacheEntry<R> entry = decode(key, bytes, type);
+        return entry == null || !entry.isLogical() ? MISSING : entry;
+    }
+
+    /**
+     * 查询数据库并写入逻辑过期数据，数据库不存在时写入空值
+     */
+    private <R, ID> R loadLogical(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        R r = dbFallback.apply(id);
+        if (r == null) {
+            writeBytes(key, EMPTY, TimeUnit.MINUTES.toMillis(RedisConstants.CACHE_NULL_TTL));
+            putLocal(key, null);
+            return null;
+        }
+        // 过期时间加随机抖动，避免同一批预热的数据同时过期
+        long millis = unit.toMillis(time);
+        long expireMillis = System.currentTimeMillis() + millis + RandomUtil.randomLong(millis / 10 + 1);
+        writeBytes(key, codec.encode(r, expireMillis), 0);
+        putLocal(key, new CacheEntry<>(r, expireMillis));
+        return r;
+    }
+
+    /**
+     * 提交重建任务：本节点同一key只提交一次，跨节点由Redis锁互斥；队列满时放弃，下次读取再触发
+     */
+    private <R, ID> void refreshAsync(String key, ID id, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        if (!refreshing.add(key)) {
+            return;
+        }
+        String lockKey = lockKey(key);
+        String token = tryLock(lockKey);
+        if (token == null) {
+            refreshing.remove(key);
+            refreshSkipped.increment();
+            return;
+        }
+        try {
+            rebuildExecutor.execute(() -> {
+                try {
+                    loadLogical(key, id, dbFallback, time, unit);
+                    refreshed.increment();
+                } catch (Exception e) {
+                    refreshFailed.increment();
+                    log.error("缓存重建失败 {}", key, e);
+                } finally {
+                    unLock(lockKey, token);
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshRejected.increment();
+            unLock(lockKey, token);
+            refreshing.remove(key);
+        }
+    }
+
+    /**
+     * 单飞：同一key在本节点同时只有一个线程执行 loader，其它线程等待它的结果。
+     * loader 最多等锁 load-timeout-millis 后再查数据库，等待者多等 db-load-budget-millis，不会在 loader 正常完成前先超时
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T singleFlight(String key, Supplier<T> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = loading.putIfAbsent(key, future);
+        if (inFlight != null) {
+            coalesced.increment();
+            try {
+                return (T) inFlight.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待缓存加载被中断: " + key, e);
+            } catch (TimeoutException e) {
+                loadTimeouts.increment();
+                throw new IllegalStateException("等待缓存加载超时: " + key, e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+            }
+        }
+        try {
+            T r = loader.get();
+            future.complete(r);
+            return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
         }
-        return null;
     }
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    /**
+     * 跨节点互斥加载：拿到锁的节点再检查一次Redis后查数据库；其它节点等待Redis中出现数据，
+     * 超过 load-timeout-millis 仍未出现（持锁节点可能已宕机）时自行查询数据库
+     * @param recheck 读Redis，返回值约定同 readPassThrough
+     * @param load 查数据库并写入Redis
+     */
+    @SuppressWarnings("unchecked")
+    private <R> R loadWithLock(String key, Supplier<Object> recheck, Supplier<R> load) {
+        String lockKey = lockKey(key);
+        long deadline = System.currentTimeMillis() + loadTimeoutMillis;
+        while (true) {
+            String token = tryLock(lockKey);
+            if (token != null) {
+                try {
+                    Object cached = recheck.get();
+                    if (cached != MISSING) {
+                        return cached == NULL_VALUE ? null : (R) cached;
+                    }
+                    dbLoads.increment();
+                    return load.get();
+                } finally {
+                    unLock(lockKey, token);
+                }
+            }
+            lockWaits.increment();
+            try {
+                Thread.sleep(LOCK_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待缓存加载被中断: " + key, e);
+            }
+            Object cached = recheck.get();
+            if (cached != MISSING) {
+                return cached == NULL_VALUE ? null : (R) cached;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                dbLoads.increment();
+                return load.get();
+            }
+        }
+    }
 
-    private boolean tryLock(String key) {
-        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", RedisConstants.LOCK_SHOP_TTL + 2L, TimeUnit.MINUTES);
-        return BooleanUtil.isTrue(flag);
+    /**
+     * 重建锁按key前缀区分：cache:shop:1 -> lock:shop:1
+     */
+    private static String lockKey(String key) {
+        return LOCK_KEY_PREFIX + StrUtil.removePrefix(key, CACHE_KEY_PREFIX);
     }
 
-    private void unLock(String key) {
-        stringRedisTemplate.delete(key);
+    /**
+     * 各级缓存的命中率
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        CacheStats local = localCache.stats();
+        Map<String, Object> l1 = new LinkedHashMap<>();
+        l1.put("enabled", localEnabled);
+        l1.put("size", localCache.estimatedSize());
+        l1.put("hits", local.hitCount());
+        l1.put("misses", local.missCount());
+        l1.put("hitRatio", local.hitRate());
+        l1.put("evictions", local.evictionCount());
+        stats.put("local", l1);
+        long hits = redisHits.sum() + redisNullHits.sum();
+        long requests = hits + redisMisses.sum();
+        Map<String, Object> l2 = new LinkedHashMap<>();
+        l2.put("hits", redisHits.sum());
+        l2.put("nullHits", redisNullHits.sum());
+        l2.put("misses", redisMisses.sum());
+        l2.put("hitRatio", requests == 0 ? 1.0 : (double) hits / requests);
+        stats.put("redis", l2);
+        Map<String, Object> rebuild = new LinkedHashMap<>();
+        rebuild.put("staleServed", staleServed.sum());
+        rebuild.put("refreshed", refreshed.sum());
+        rebuild.put("failed", refreshFailed.sum());
+        rebuild.put("skipped", refreshSkipped.sum());
+        rebuild.put("rejected", refreshRejected.sum());
+        rebuild.put("active", rebuildExecutor.getActiveCount());
+        rebuild.put("queued", rebuildExecutor.getQueue().size());
+        stats.put("rebuild", rebuild);
+        Map<String, Object> load = new LinkedHashMap<>();
+        load.put("dbLoads", dbLoads.sum());
+        load.put("coalesced", coalesced.sum());
+        load.put("lockWaits", lockWaits.sum());
+        load.put("timeouts", loadTimeouts.sum());
+        load.put("inFlight", loading.size());
+        stats.put("load", load);
+        Map<String, Object> encoding = new LinkedHashMap<>();
+        encoding.put("codec", codec.name());
+        encoding.put("legacyReads", legacyReads.sum());
+        encoding.put("decodeFailures", decodeFailures.sum());
+        stats.put("codec", encoding);
+        stats.put("hotKey", hotKeys.stats());
+        return stats;
     }
 
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        localCache.invalidate(key);
+        hotKeys.invalidate(key);
+    }
 
-}
+    /**
+     * 按首字节识别格式，切换编码期间两种格式都能读；无法解码（格式损坏或类结构已变化）时返回 null，按未命中处理
+     */
+    private <R> CacheEntry<R> decode(String key, byte[] bytes, Class<R> type) {
+        CacheEntry<R> entry;
+        try {
+            if (BinaryCacheCodec.isBinary(bytes)) {
+                entry = binaryCodec.decode(bytes, type);
+            } else {
+                if (codec != jsonCodec) {
+                    legacyReads.increment();
+                }
+                entry = jsonCodec.decode(bytes, type);
+            }
+        } catch (RuntimeException e) {
+            log.warn("缓存解码失败 {}", key, e);
+            entry = null;
+        }
+        if (entry == null) {
+            decodeFailures.increment();
+        }
+        return entry;
+    }
 
+    private byte[] readBytes(String key) {
+        return stringRedisTemplate.execute((RedisCallback<byte[]>) connection -> connection.get(rawKey(key)));
+    }
+
+    /**
+     * @param millis 过期毫秒数，用 PX 写入，不足1秒的TTL不会被截断成不过期；0 表示不过期
+     */
+    private void writeBytes(String key, byte[] value, long millis) {
+        Expiration expiration = millis > 0 ? Expiration.milliseconds(millis) : Expiration.persistent();
+        stringRedisTemplate.execute((RedisCallback<Object>) connection ->
+                connection.set(rawKey(key), value, expiration, RedisStringCommands.SetOption.upsert()));
+    }
+
+    private static byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 先查热点key的本地副本，再查L1
+     */
+    private Object getLocal(String key) {
+        Object value = hotKeys.get(key);
+        if (value == null && localEnabled) {
+            value = localCache.getIfPresent(key);
+        }
+        return value;
+    }
+
+    private void putLocal(String key, Object value) {
+        if (localEnabled) {
+            localCache.put(key, value == null ? NULL_VALUE : value);
+        }
+        hotKeys.put(key, value == null ? NULL_VALUE : value);
+    }
+
+    /**
+     * 按最长匹配的key前缀取L1过期时间
+     */
+    private long localTtl(String key) {
+        String matched = null;
+        for (String prefix : localTtlSeconds.keySet()) {
+            if (key.startsWith(prefix) && (matched == null || prefix.length() > matched.length())) {
+                matched = prefix;
+            }
+        }
+        return matched == null ? localDefaultTtlSeconds : localTtlSeconds.get(matched);
+    }
+
+    /**
+     * @return 加锁成功时返回本次写入的令牌，释放时凭令牌删除；加锁失败返回 null
+     */
+    private String tryLock(String key) {
+        String token = UUID.randomUUID().toString(true);
+        Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, token, RedisConstants.LOCK_SHOP_TTL, TimeUnit.SECONDS);
+        return BooleanUtil.isTrue(flag) ? token : null;
+    }
+
+    /**
+     * 加载超过锁的有效期时锁可能已被其它线程获取，只删除自己持有的锁
+     */
+    private void unLock(String key, String token) {
+        scriptRegistry.execute("unlock", Long.class, Collections.singletonList(key), token);
+    }
+
+
+}
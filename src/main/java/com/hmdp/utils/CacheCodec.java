@@ -0,0 +1,23 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值编解码。
+ * 同一个值既可以是普通缓存（expireMillis 为0），也可以带逻辑过期时间；空值占位由 CacheClient 写入空串，不经过编解码。
+ */
+public interface CacheCodec {
+
+    /**
+     * 格式名，对应配置 hmdp.cache.codec
+     */
+    String name();
+
+    /**
+     * @param expireMillis 逻辑过期时间（epoch毫秒），0 表示不使用逻辑过期
+     */
+    byte[] encode(Object value, long expireMillis);
+
+    /**
+     * @return 无法按 type 解码（格式版本或类结构不一致）时返回 null，调用方按未命中处理
+     */
+    <R> CacheEntry<R> decode(byte[] bytes, Class<R> type);
+}
@@ -0,0 +1,25 @@
+package com.hmdp.utils;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * 解码后的缓存值
+ */
+@Getter
+@AllArgsConstructor
+public class CacheEntry<R> {
+    private final R value;
+    /**
+     * 逻辑过期时间（epoch毫秒），0 表示不使用逻辑过期
+     */
+    private final long expireMillis;
+
+    public boolean isLogical() {
+        return expireMillis > 0;
+    }
+
+    public boolean isExpired() {
+        return expireMillis <= System.currentTimeMillis();
+    }
+}
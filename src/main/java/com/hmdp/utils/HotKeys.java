@@ -0,0 +1,298 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+import cn.hutool.core.util.StrUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 热点key探测。
+ * 按 sample-rate 抽样记录 CacheClient 的key访问，计入滑动窗口 Count-Min Sketch（每秒一个分片，window-seconds 个分片轮转），
+ * 估算的QPS超过 threshold-qps 时升级为热点key，经 Redis pub/sub 通知所有节点；热点key在各节点额外保存一份短TTL的本地副本，
+ * 即使L1关闭或已淘汰也不再打到同一个Redis分片。
+ * 热点身份是一份租约：仍判定为热点的节点在租约过半时重新广播续期，所有节点都不再续期（key已降温）时各自到期降级。
+ */
+@Slf4j
+@Component
+public class HotKeys implements MessageListener {
+
+    private static final int SKETCH_DEPTH = 4;
+    private static final int SKETCH_WIDTH = 4096;
+    private static final long SLOT_MILLIS = 1000;
+
+    private final boolean enabled;
+    private final long thresholdQps;
+    private final int windowSeconds;
+    private final double sampleRate;
+    private final long leaseMillis;
+    private final int maxKeys;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    /**
+     * 每秒一个分片，每个分片是 depth * width 的计数矩阵
+     */
+    private final AtomicIntegerArray[] slots;
+    private volatile int currentSlot;
+    private final Map<String, HotKey> hotKeys = new ConcurrentHashMap<>();
+    /**
+     * 热点key的本地副本
+     */
+    private final Cache<String, Object> localCopies;
+
+    private final LongAdder sampled = new LongAdder();
+    private final LongAdder promoted = new LongAdder();
+    private final LongAdder demoted = new LongAdder();
+    private final LongAdder localHits = new LongAdder();
+
+    public HotKeys(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer,
+                   @Value("${hmdp.cache.hot-key.enabled:true}") boolean enabled,
+                   @Value("${hmdp.cache.hot-key.threshold-qps:1000}") long thresholdQps,
+                   @Value("${hmdp.cache.hot-key.window-seconds:10}") int windowSeconds,
+                   @Value("${hmdp.cache.hot-key.sample-rate:0.1}") double sampleRate,
+                   @Value("${hmdp.cache.hot-key.lease-seconds:30}") long leaseSeconds,
+                   @Value("${hmdp.cache.hot-key.local-ttl-millis:1000}") long localTtlMillis,
+                   @Value("${hmdp.cache.hot-key.max-keys:1000}") int maxKeys) {
+        if (windowSeconds < 1 || sampleRate <= 0 || sampleRate > 1) {
+            throw new IllegalArgumentException("window-seconds 须大于0，sample-rate 须在 (0, 1] 之间");
+        }
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.enabled = enabled;
+        this.thresholdQps = thresholdQps;
+        this.windowSeconds = windowSeconds;
+        this.sampleRate = sampleRate;
+        this.leaseMillis = TimeUnit.SECONDS.toMillis(leaseSeconds);
+        this.maxKeys = maxKeys;
+        this.slots = new AtomicIntegerArray[windowSeconds];
+        for (int i = 0; i < windowSeconds; i++) {
+            slots[i] = new AtomicIntegerArray(SKETCH_DEPTH * SKETCH_WIDTH);
+        }
+        this.localCopies = Caffeine.newBuilder()
+                .maximumSize(maxKeys)
+                .expireAfterWrite(localTtlMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.CACHE_HOT_KEY_CHANNEL));
+    }
+
+    /**
+     * 记录一次访问，抽样计数，超过阈值时升级并广播
+     */
+    public void record(String key) {
+        if (!enabled || ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            return;
+        }
+        sampled.increment();
+        long hash = MurmurHash.hash64(key);
+        AtomicIntegerArray slot = slots[currentSlot];
+        for (int i = 0; i < SKETCH_DEPTH; i++) {
+            slot.incrementAndGet(index(hash, i));
+        }
+        if (hotKeys.containsKey(key)) {
+            return;
+        }
+        long qps = estimateQps(hash);
+        if (qps >= thresholdQps && hotKeys.size() < maxKeys) {
+            broadcast(key, qps);
+        }
+    }
+
+    public boolean isHot(String key) {
+        return !hotKeys.isEmpty() && hotKeys.containsKey(key);
+    }
+
+    /**
+     * @return 本地副本，不是热点key或副本已过期时返回 null
+     */
+    public Object get(String key) {
+        if (hotKeys.isEmpty()) {
+            return null;
+        }
+        Object value = localCopies.getIfPresent(key);
+        if (value != null) {
+            localHits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * 热点key从L1、Redis或数据库取到值后保存本地副本，非热点key忽略
+     */
+    public void put(String key, Object value) {
+        if (isHot(key)) {
+            localCopies.put(key, value);
+        }
+    }
+
+    public void invalidate(String key) {
+        localCopies.invalidate(key);
+    }
+
+    /**
+     * 每秒轮转分片：清空最旧的分片作为当前分片；同时续期仍然很热的key、降级租约到期的key
+     */
+    @Scheduled(fixedRate = SLOT_MILLIS)
+    public void rotate() {
+        if (!enabled) {
+            return;
+        }
+        int next = (currentSlot + 1) % windowSeconds;
+        AtomicIntegerArray slot = slots[next];
+        for (int i = 0; i < slot.length(); i++) {
+            slot.set(i, 0);
+        }
+        currentSlot = next;
+
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, HotKey> entry : hotKeys.entrySet()) {
+            String key = entry.getKey();
+            HotKey hotKey = entry.getValue();
+            if (hotKey.expireMillis <= now) {
+                // 1.所有节点都没有续期，降级
+                if (hotKeys.remove(key, hotKey)) {
+                    localCopies.invalidate(key);
+                    demoted.increment();
+                    log.info("热点key降级 {}，持续 {}s", key, (now - hotKey.promotedMillis) / 1000);
+                }
+                continue;
+            }
+            // 2.本节点仍判定为热点（阈值减半，避免在阈值附近反复升降级），租约过半时续期
+            long qps = estimateQps(MurmurHash.hash64(key));
+            if (qps >= thresholdQps / 2 && hotKey.expireMillis - now < leaseMillis / 2) {
+                broadcast(key, qps);
+            }
+        }
+    }
+
+    /**
+     * 当前热点key，按QPS从高到低
+     */
+    public List<Map<String, Object>> list() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> list = new ArrayList<>(hotKeys.size());
+        for (Map.Entry<String, HotKey> entry : hotKeys.entrySet()) {
+            HotKey hotKey = entry.getValue();
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("key", entry.getKey());
+            item.put("qps", hotKey.qps);
+            item.put("localQps", estimateQps(MurmurHash.hash64(entry.getKey())));
+            item.put("promotedMillis", hotKey.promotedMillis);
+            item.put("leaseRemainingMillis", Math.max(0, hotKey.expireMillis - now));
+            list.add(item);
+        }
+        list.sort(Comparator.comparingLong((Map<String, Object> item) -> (Long) item.get("qps")).reversed());
+        return list;
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("hotKeys", hotKeys.size());
+        stats.put("sampled", sampled.sum());
+        stats.put("promoted", promoted.sum());
+        stats.put("demoted", demoted.sum());
+        stats.put("localHits", localHits.sum());
+        return stats;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        String qps = StrUtil.subBefore(body, ":", false);
+        String key = StrUtil.subAfter(body, ":", false);
+        if (!StrUtil.isNumeric(qps) || StrUtil.isEmpty(key)) {
+            log.warn("无效的热点key消息: {}", body);
+            return;
+        }
+        promote(key, Long.parseLong(qps));
+    }
+
+    /**
+     * 升级或续期，本节点先生效，再通知其它节点（本节点也会收到，重复处理无影响）
+     */
+    private void broadcast(String key, long qps) {
+        promote(key, qps);
+        stringRedisTemplate.convertAndSend(RedisConstants.CACHE_HOT_KEY_CHANNEL, qps + ":" + key);
+    }
+
+    private void promote(String key, long qps) {
+        long now = System.currentTimeMillis();
+        HotKey current = hotKeys.get(key);
+        if (current == null) {
+            if (hotKeys.size() >= maxKeys) {
+                return;
+            }
+            current = new HotKey(now);
+            if (hotKeys.putIfAbsent(key, current) == null) {
+                promoted.increment();
+                log.info("热点key升级 {}，约 {} QPS", key, qps);
+            } else {
+                current = hotKeys.get(key);
+            }
+        }
+        if (current != null) {
+            current.qps = qps;
+            current.expireMillis = now + leaseMillis;
+        }
+    }
+
+    /**
+     * 窗口内估算QPS：每行取各分片之和，再取各行最小值
+     */
+    private long estimateQps(long hash) {
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < SKETCH_DEPTH; i++) {
+            int index = index(hash, i);
+            long sum = 0;
+            for (AtomicIntegerArray slot : slots) {
+                sum += slot.get(index);
+            }
+            min = Math.min(min, sum);
+        }
+        return (long) (min / sampleRate / windowSeconds);
+    }
+
+    /**
+     * 双重哈希：第i行的位置为 h1 + i * h2
+     */
+    private static int index(long hash, int i) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        return i * SKETCH_WIDTH + ((h1 + i * h2) & (SKETCH_WIDTH - 1));
+    }
+
+    private static class HotKey {
+        private final long promotedMillis;
+        private volatile long expireMillis;
+        private volatile long qps;
+
+        private HotKey(long promotedMillis) {
+            this.promotedMillis = promotedMillis;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按id判断是否存在的布隆过滤器，线程安全。
+ * 位数组大小和哈希函数个数由预期元素数和误判率计算；返回 false 时一定不存在，返回 true 时可能存在。
+ */
+public class IdBloomFilter {
+
+    private final long expectedInsertions;
+    private final double fpp;
+    private final long numBits;
+    private final int numHashFunctions;
+    private final AtomicLongArray bits;
+    private final LongAdder inserted = new LongAdder();
+
+    public IdBloomFilter(long expectedInsertions, double fpp) {
+        if (expectedInsertions < 1 || fpp <= 0 || fpp >= 1) {
+            throw new IllegalArgumentException("expectedInsertions 须大于0，fpp 须在 (0, 1) 之间");
+        }
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        // m = -n * ln(p) / (ln2)^2，k = m / n * ln2
+        this.numBits = Math.max(Long.SIZE, (long) (-expectedInsertions * Math.log(fpp) / (Math.log(2) * Math.log(2))));
+        this.numHashFunctions = Math.max(1, (int) Math.round((double) numBits / expectedInsertions * Math.log(2)));
+        this.bits = new AtomicLongArray((int) ((numBits + Long.SIZE - 1) / Long.SIZE));
+    }
+
+    public void put(long id) {
+        long[] hash = hash(id);
+        for (int i = 0; i < numHashFunctions; i++) {
+            long index = index(hash, i);
+            int word = (int) (index >>> 6);
+            long mask = 1L << index;
+            long current;
+            do {
+                current = bits.get(word);
+                if ((current & mask) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(word, current, current | mask));
+        }
+        inserted.increment();
+    }
+
+    public boolean mightContain(long id) {
+        long[] hash = hash(id);
+        for (int i = 0; i < numHashFunctions; i++) {
+            long index = index(hash, i);
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long expectedInsertions() {
+        return expectedInsertions;
+    }
+
+    public double fpp() {
+        return fpp;
+    }
+
+    public long bitSize() {
+        return numBits;
+    }
+
+    public int hashFunctions() {
+        return numHashFunctions;
+    }
+
+    public long memoryBytes() {
+        return (long) bits.length() * Long.BYTES;
+    }
+
+    /**
+     * 写入次数（含重复写入）
+     */
+    public long inserted() {
+        return inserted.sum();
+    }
+
+    /**
+     * 按当前写入数估算的实际误判率 (1 - e^(-kn/m))^k
+     */
+    public double currentFpp() {
+        return Math.pow(1 - Math.exp(-(double) numHashFunctions * inserted() / numBits), numHashFunctions);
+    }
+
+    private static long[] hash(long id) {
+        byte[] bytes = new byte[Long.BYTES];
+        for (int i = 0; i < Long.BYTES; i++) {
+            bytes[i] = (byte) (id >>> (i * 8));
+        }
+        return MurmurHash.hash128(bytes);
+    }
+
+    /**
+     * 双重哈希：第i个位置为 h1 + i * h2
+     */
+    private long index(long[] hash, int i) {
+        return ((hash[0] + i * hash[1]) & Long.MAX_VALUE) % numBits;
+    }
+}
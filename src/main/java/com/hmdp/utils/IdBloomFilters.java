@@ -0,0 +1,210 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.VoucherMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 店铺、优惠券id的本地布隆过滤器，防止不存在的id穿透到Redis和MySQL。
+ * 启动后及每隔 hmdp.bloom.rebuild-interval-millis 按id分段流式读取 tb_shop、tb_voucher 重建；
+ * 新增数据时写入本地并通过 Redis pub/sub 通知其它节点，消息丢失时由下次重建补齐。
+ * 尚未完成首次构建时放行所有id。
+ */
+@Slf4j
+@Component
+public class IdBloomFilters implements MessageListener {
+
+    public static final String SHOP = "shop";
+    public static final String VOUCHER = "voucher";
+
+    private static final int LOAD_CHUNK_SIZE = 5000;
+
+    private final boolean enabled;
+    private final Map<String, Filter> filters = new LinkedHashMap<>();
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+
+    public IdBloomFilters(ShopMapper shopMapper, VoucherMapper voucherMapper,
+                          StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer,
+                          @Value("${hmdp.bloom.enabled:true}") boolean enabled,
+                          @Value("${hmdp.bloom.shop.expected-insertions:1000000}") long shopExpected,
+                          @Value("${hmdp.bloom.shop.fpp:0.01}") double shopFpp,
+                          @Value("${hmdp.bloom.voucher.expected-insertions:100000}") long voucherExpected,
+                          @Value("${hmdp.bloom.voucher.fpp:0.01}") double voucherFpp) {
+        this.enabled = enabled;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+        filters.put(SHOP, new Filter(SHOP, shopMapper, shopExpected, shopFpp));
+        filters.put(VOUCHER, new Filter(VOUCHER, voucherMapper, voucherExpected, voucherFpp));
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.BLOOM_ADD_CHANNEL));
+    }
+
+    /**
+     * @return false 表示id一定不存在
+     */
+    public boolean mightContain(String name, Long id) {
+        Filter filter = filters.get(name);
+        IdBloomFilter current = filter.current;
+        if (!enabled || current == null || id == null) {
+            return true;
+        }
+        if (current.mightContain(id)) {
+            return true;
+        }
+        filter.rejected.increment();
+        return false;
+    }
+
+    /**
+     * 新增数据后调用，写入本节点并广播
+     */
+    public void add(String name, Long id) {
+        if (!enabled) {
+            return;
+        }
+        put(name, id);
+        stringRedisTemplate.convertAndSend(RedisConstants.BLOOM_ADD_CHANNEL, name + ":" + id);
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.bloom.rebuild-interval-millis:3600000}")
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        for (Filter filter : filters.values()) {
+            try {
+                rebuild(filter);
+            } catch (Exception e) {
+                filter.building = null;
+                log.warn("重建布隆过滤器 {} 失败", filter.name, e);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void rebuild(Filter filter) {
+        long begin = System.currentTimeMillis();
+        // 1.按当前数据量留出余量，数据量超过配置的预期值时自动扩容
+        long count = filter.mapper.selectCount(null);
+        IdBloomFilter building = new IdBloomFilter(Math.max(filter.expectedInsertions, count + count / 2), filter.fpp);
+        // 2.先登记再读表，读表期间新增的id同时写入新旧过滤器
+        filter.building = building;
+        long cursor = 0;
+        while (true) {
+            List<Object> ids = filter.mapper.selectObjs(new QueryWrapper<>()
+                    .select("id")
+                    .gt("id", cursor)
+                    .orderByAsc("id")
+                    .last("limit " + LOAD_CHUNK_SIZE));
+            if (ids.isEmpty()) {
+                break;
+            }
+            for (Object id : ids) {
+                building.put(((Number) id).longValue());
+            }
+            cursor = ((Number) ids.get(ids.size() - 1)).longValue();
+        }
+        // 3.替换
+        filter.current = building;
+        filter.building = null;
+        filter.lastRebuildMillis = System.currentTimeMillis();
+        filter.lastRebuildCostMillis = filter.lastRebuildMillis - begin;
+        log.info("布隆过滤器 {} 重建完成，{} 个id，占用 {} 字节", filter.name, building.inserted(), building.memoryBytes());
+    }
+
+    /**
+     * 各过滤器的大小、内存占用和拦截次数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Filter filter : filters.values()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            IdBloomFilter current = filter.current;
+            item.put("ready", current != null);
+            item.put("rejected", filter.rejected.sum());
+            if (current != null) {
+                item.put("expectedInsertions", current.expectedInsertions());
+                item.put("fpp", current.fpp());
+                item.put("currentFpp", current.currentFpp());
+                item.put("inserted", current.inserted());
+                item.put("bits", current.bitSize());
+                item.put("hashFunctions", current.hashFunctions());
+                item.put("memoryBytes", current.memoryBytes());
+                item.put("lastRebuildMillis", filter.lastRebuildMillis);
+                item.put("lastRebuildCostMillis", filter.lastRebuildCostMillis);
+            }
+            stats.put(filter.name, item);
+        }
+        return stats;
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        String name = StrUtil.subBefore(body, ":", false);
+        String id = StrUtil.subAfter(body, ":", false);
+        if (!filters.containsKey(name) || !StrUtil.isNumeric(id)) {
+            log.warn("无效的布隆过滤器消息: {}", body);
+            return;
+        }
+        put(name, Long.valueOf(id));
+    }
+
+    /**
+     * 先读 building 再读 current：rebuild 替换时先写 current 再清空 building，
+     * 读到 building 为空时 current 一定已是新过滤器（或尚未开始重建），不会只写入即将丢弃的旧过滤器
+     */
+    private void put(String name, Long id) {
+        Filter filter = filters.get(name);
+        IdBloomFilter building = filter.building;
+        IdBloomFilter current = filter.current;
+        if (building != null) {
+            building.put(id);
+        }
+        if (current != null && current != building) {
+            current.put(id);
+        }
+    }
+
+    private static class Filter {
+        private final String name;
+        @SuppressWarnings("rawtypes")
+        private final BaseMapper mapper;
+        private final long expectedInsertions;
+        private final double fpp;
+        private volatile IdBloomFilter current;
+        private volatile IdBloomFilter building;
+        private volatile long lastRebuildMillis;
+        private volatile long lastRebuildCostMillis;
+        private final LongAdder rejected = new LongAdder();
+
+        private Filter(String name, BaseMapper<?> mapper, long expectedInsertions, double fpp) {
+            this.name = name;
+            this.mapper = mapper;
+            this.expectedInsertions = expectedInsertions;
+            this.fpp = fpp;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * hutool JSON 编码，与切换编码前写入的格式一致：普通缓存为对象JSON，逻辑过期为 {@link RedisData} 包装。
+ * 保留用于迁移：其它节点尚未升级时配置 hmdp.cache.codec=json，旧数据也由它读取。
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    public static final String NAME = "json";
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte[] encode(Object value, long expireMillis) {
+        if (expireMillis <= 0) {
+            return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+        }
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(expireMillis), ZoneId.systemDefault()));
+        return JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <R> CacheEntry<R> decode(byte[] bytes, Class<R> type) {
+        JSONObject json = JSONUtil.parseObj(new String(bytes, StandardCharsets.UTF_8));
+        // 1.RedisData 包装：只解析一次，data 直接转成目标类型
+        if (json.containsKey("expireTime") && json.containsKey("data")) {
+            LocalDateTime expireTime = json.get("expireTime", LocalDateTime.class);
+            JSONObject data = json.getJSONObject("data");
+            if (expireTime == null) {
+                return null;
+            }
+            return new CacheEntry<>(data == null ? null : data.toBean(type),
+                    expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        }
+        // 2.普通缓存
+        return new CacheEntry<>(json.toBean(type), 0);
+    }
+}
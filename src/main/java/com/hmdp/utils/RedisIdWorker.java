@@ -1,38 +1,341 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.RandomUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * 全局ID：31位时间戳（秒） + 32位当天序列号。
+ * incr 模式每个ID执行一次 INCR；segment 模式用 INCRBY 一次预留一段序列号，在本地发放，
+ * 当前号段用掉80%时后台预取下一段，两种模式生成的ID布局一致。
+ * snowflake 模式完全在本地生成：低32位为 1位标记 + 9位worker id + 22位序列号，
+ * 标记位保证不会与当天INCR序列号冲突；worker id 启动时从Redis租用并定期续约。
+ * nextId(keyPrefix, gene) 把序列号左移 GENE_BITS 位，低位填入调用方给的基因（如订单按用户分表的分片基因），
+ * 此时 incr/segment 模式每天最多 2^28 个序列号，snowflake 模式每秒最多 2^18 个；同一个 keyPrefix 只能固定使用其中一种方法。
+ */
+@Slf4j
 @Component
 public class RedisIdWorker {
     private static final long BEGIN_TIMESTAMP = 1640995200L;
     private static final int COUNT_BITS = 32;
+    public static final int GENE_BITS = 4;
+    private static final long GENE_MASK = (1L << GENE_BITS) - 1;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+
+    public static final String MODE_INCR = "incr";
+    public static final String MODE_SEGMENT = "segment";
+    public static final String MODE_SNOWFLAKE = "snowflake";
+
+    private static final int SEQUENCE_BITS = 22;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int WORKER_ID_BITS = 9;
+    private static final int MAX_WORKER_ID = (1 << WORKER_ID_BITS) - 1;
+    private static final long SNOWFLAKE_FLAG = 1L << 31;
+    /**
+     * 序列号用完或时钟回拨时最多向后借用的秒数，超过则等待时钟追上
+     */
+    private static final long MAX_BORROW_SECONDS = 2;
+    private static final long WORKER_LEASE_TTL_MILLIS = 60_000L;
+    /**
+     * 本地认为租约有效的时长，比Redis中的过期时间短，确保租约过期前本节点已停止发号
+     */
+    private static final long WORKER_LEASE_SAFE_MILLIS = 45_000L;
+    private static final String NODE_ID = UUID.randomUUID().toString(true);
+
+    private static final ExecutorService SEGMENT_LOADER = Executors.newSingleThreadExecutor();
 
     private final StringRedisTemplate stringRedisTemplate;
+    private final RedisScriptRegistry scriptRegistry;
+    private final String mode;
+    private final long segmentSize;
+    /**
+     * 当天的日期key和时区偏移，跨天时才重新计算，避免每次生成ID都格式化日期
+     */
+    private volatile DayCache dayCache;
+    private final ConcurrentHashMap<String, SegmentBuffer> segmentBuffers = new ConcurrentHashMap<>();
 
-    public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+    private volatile long workerId = -1;
+    private volatile long leaseValidUntil;
+    /**
+     * snowflake 状态：秒级时间戳 << 22 | 序列号，CAS 更新
+     */
+    private final AtomicLong snowflakeState = new AtomicLong();
+
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate,
+                         RedisScriptRegistry scriptRegistry,
+                         @Value("${hmdp.id.mode:incr}") String mode,
+                         @Value("${hmdp.id.segment-size:1000}") long segmentSize) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.scriptRegistry = scriptRegistry;
+        this.mode = mode;
+        this.segmentSize = segmentSize;
+    }
+
+    @PostConstruct
+    private void init() {
+        if (MODE_SNOWFLAKE.equals(mode)) {
+            leaseWorkerId();
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        long id = workerId;
+        if (id < 0) {
+            return;
+        }
+        String key = RedisConstants.ID_WORKER_LEASE_KEY + id;
+        if (Objects.equals(stringRedisTemplate.opsForValue().get(key), NODE_ID)) {
+            stringRedisTemplate.delete(key);
+        }
     }
 
     public long nextId(String keyPrefix) {
+        return nextId(keyPrefix, 0, 0);
+    }
+
+    /**
+     * 生成低 GENE_BITS 位为 gene 的ID
+     */
+    public long nextId(String keyPrefix, long gene) {
+        return nextId(keyPrefix, GENE_BITS, gene & GENE_MASK);
+    }
+
+    private long nextId(String keyPrefix, int geneBits, long gene) {
         // 1.生成时间戳
-        LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
-        long timestamp = nowSecond - BEGIN_TIMESTAMP;
+        long epochSecond = System.currentTimeMillis() / 1000;
+        DayCache day = currentDay(epochSecond);
+        long timestamp = epochSecond + day.offsetSeconds - BEGIN_TIMESTAMP;
+
+        if (MODE_SNOWFLAKE.equals(mode)) {
+            return nextSnowflakeId(timestamp, geneBits, gene);
+        }
 
         // 2.生成序列号
-        // 2.1.获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        // 2.2.自增长
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        long count = MODE_SEGMENT.equals(mode)
+                ? nextSegmentCount(keyPrefix, day.date)
+                // 2.1.自增长
+                : stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + day.date);
 
         // 3.拼接并返回
-        return timestamp << COUNT_BITS | count;
+        return timestamp << COUNT_BITS | count << geneBits | gene;
     }
 
-}
+    /**
+     * 与原先 LocalDateTime.now().toEpochSecond(UTC) 保持一致：时间戳按本地时间计算
+     */
+    private DayCache currentDay(long epochSecond) {
+        DayCache day = dayCache;
+        if (day == null || epochSecond >= day.endEpochSecond) {
+            ZoneId zone = ZoneId.systemDefault();
+            LocalDate date = LocalDate.now(zone);
+            long end = date.plusDays(1).atStartOfDay(zone).toEpochSecond();
+            int offset = zone.getRules().getOffset(Instant.ofEpochSecond(epochSecond)).getTotalSeconds();
+            day = new DayCache(date.format(DATE_FORMATTER), end, offset);
+            dayCache = day;
+        }
+        return day;
+    }
+
+    /**
+     * 无网络IO、无锁的本地ID。时钟回拨或序列号用完时沿用（借用）上一秒之后的时间戳继续发号，保证单调递增
+     */
+    private long nextSnowflakeId(long timestamp, int geneBits, long gene) {
+        // 带基因时序列号只剩 22 - geneBits 位，超出后借用下一秒
+        long maxSequence = SEQUENCE_MASK >>> geneBits;
+        if (System.currentTimeMillis() > leaseValidUntil) {
+            leaseWorkerId();
+        }
+        while (true) {
+            long state = snowflakeState.get();
+            long lastTimestamp = state >>> SEQUENCE_BITS;
+            long next;
+            if (timestamp > lastTimestamp) {
+                next = timestamp << SEQUENCE_BITS;
+            } else if ((state & SEQUENCE_MASK) < maxSequence) {
+                // 同一秒或时钟回拨：在上一秒上继续递增序列号
+                next = state + 1;
+            } else if (lastTimestamp + 1 - timestamp <= MAX_BORROW_SECONDS) {
+                // 序列号用完：借用下一秒
+                next = (lastTimestamp + 1) << SEQUENCE_BITS;
+            } else {
+                // 借用过多，等待时钟追上
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("等待时钟追上时被中断", e);
+                }
+                long epochSecond = System.currentTimeMillis() / 1000;
+                timestamp = epochSecond + currentDay(epochSecond).offsetSeconds - BEGIN_TIMESTAMP;
+                continue;
+            }
+            if (snowflakeState.compareAndSet(state, next)) {
+                return (next >>> SEQUENCE_BITS) << COUNT_BITS
+                        | SNOWFLAKE_FLAG
+                        | workerId << SEQUENCE_BITS
+                        | (next & SEQUENCE_MASK) << geneBits
+                        | gene;
+            }
+        }
+    }
+
+    /**
+     * 从随机位置开始依次尝试 SET icr:worker:{id} nodeId NX PX ttl
+     */
+    private synchronized void leaseWorkerId() {
+        if (workerId >= 0 && System.currentTimeMillis() <= leaseValidUntil) {
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        int start = RandomUtil.randomInt(MAX_WORKER_ID + 1);
+        for (int i = 0; i <= MAX_WORKER_ID; i++) {
+            int id = (start + i) % (MAX_WORKER_ID + 1);
+            Boolean success = stringRedisTemplate.opsForValue().setIfAbsent(
+                    RedisConstants.ID_WORKER_LEASE_KEY + id, NODE_ID, WORKER_LEASE_TTL_MILLIS, TimeUnit.MILLISECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                workerId = id;
+                leaseValidUntil = begin + WORKER_LEASE_SAFE_MILLIS;
+                log.info("租用 worker id {}", id);
+                return;
+            }
+        }
+        throw new IllegalStateException("没有可用的 worker id");
+    }
 
+    /**
+     * 定期续约 worker id，租约已被他人占用时重新租用
+     */
+    @Scheduled(fixedDelay = 15000)
+    public void renewWorkerId() {
+        long id = workerId;
+        if (!MODE_SNOWFLAKE.equals(mode) || id < 0) {
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        try {
+            Long renewed = scriptRegistry.execute("id_worker_renew", Long.class,
+                    Collections.singletonList(RedisConstants.ID_WORKER_LEASE_KEY + id),
+                    NODE_ID, String.valueOf(WORKER_LEASE_TTL_MILLIS));
+            if (renewed != null && renewed == 1) {
+                leaseValidUntil = begin + WORKER_LEASE_SAFE_MILLIS;
+                return;
+            }
+            log.warn("worker id {} 租约已丢失，重新租用", id);
+            leaseValidUntil = 0;
+            leaseWorkerId();
+        } catch (Exception e) {
+            log.error("worker id {} 续约失败", id, e);
+        }
+    }
+
+    private long nextSegmentCount(String keyPrefix, String date) {
+        return segmentBuffers.computeIfAbsent(keyPrefix, SegmentBuffer::new).next(date);
+    }
+
+    /**
+     * INCRBY icr:{prefix}:{date} segmentSize，返回号段 [end - size + 1, end]
+     */
+    private Segment allocate(String keyPrefix, String date) {
+        Long end = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, segmentSize);
+        return new Segment(date, end - segmentSize + 1, end, end - segmentSize / 5);
+    }
+
+    private static class DayCache {
+        private final String date;
+        private final long endEpochSecond;
+        private final int offsetSeconds;
+
+        private DayCache(String date, long endEpochSecond, int offsetSeconds) {
+            this.date = date;
+            this.endEpochSecond = endEpochSecond;
+            this.offsetSeconds = offsetSeconds;
+        }
+    }
+
+    private static class Segment {
+        private final String date;
+        private final AtomicLong cursor;
+        private final long max;
+        /**
+         * 发放到该序列号时预取下一段
+         */
+        private final long prefetchAt;
+
+        private Segment(String date, long min, long max, long prefetchAt) {
+            this.date = date;
+            this.cursor = new AtomicLong(min);
+            this.max = max;
+            this.prefetchAt = prefetchAt;
+        }
+    }
+
+    /**
+     * 双号段缓冲：current 用于发放，next 为后台预取的下一段
+     */
+    private class SegmentBuffer {
+        private final String keyPrefix;
+        private volatile Segment current;
+        private volatile Segment next;
+
+        private SegmentBuffer(String keyPrefix) {
+            this.keyPrefix = keyPrefix;
+        }
+
+        private long next(String date) {
+            while (true) {
+                Segment segment = current;
+                if (segment != null && segment.date.equals(date)) {
+                    long seq = segment.cursor.getAndIncrement();
+                    if (seq <= segment.max) {
+                        // 恰好只有一个线程会拿到 prefetchAt
+                        if (seq == segment.prefetchAt) {
+                            SEGMENT_LOADER.submit(() -> prefetch(segment));
+                        }
+                        return seq;
+                    }
+                }
+                // 当前号段用完或已跨天，切换号段
+                switchSegment(segment, date);
+            }
+        }
+
+        private synchronized void switchSegment(Segment exhausted, String date) {
+            if (current != exhausted) {
+                // 其它线程已经切换过
+                return;
+            }
+            Segment prefetched = next;
+            next = null;
+            current = prefetched != null && prefetched.date.equals(date) ? prefetched : allocate(keyPrefix, date);
+        }
+
+        private void prefetch(Segment from) {
+            Segment segment = allocate(keyPrefix, from.date);
+            synchronized (this) {
+                if (current == from && next == null) {
+                    next = segment;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,189 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.crypto.SecureUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * lua脚本注册表。
+ * 启动时加载 classpath 下 lua/*.lua，按文件名（不含扩展名）注册，SCRIPT LOAD 到Redis，之后只用 EVALSHA 执行，
+ * 不再每次发送脚本内容；Redis重启或主从切换后脚本缓存丢失时，收到 NOSCRIPT 会重新加载并重试一次。
+ * 集群模式下各节点缓存各自独立，同样由 NOSCRIPT 时重新加载补齐。
+ */
+@Slf4j
+@Component
+public class RedisScriptRegistry {
+
+    private static final String LOCATION = "classpath*:lua/*.lua";
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final Map<String, Script> scripts = new TreeMap<>();
+
+    public RedisScriptRegistry(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    @PostConstruct
+    private void init() throws IOException {
+        // 1.读取全部脚本，按UTF-8计算sha1，与Redis的计算方式一致
+        for (Resource resource : new PathMatchingResourcePatternResolver().getResources(LOCATION)) {
+            String filename = resource.getFilename();
+            if (filename == null) {
+                continue;
+            }
+            try (InputStream in = resource.getInputStream()) {
+                byte[] body = IoUtil.readBytes(in);
+                String name = filename.substring(0, filename.length() - ".lua".length());
+                scripts.put(name, new Script(name, body, SecureUtil.sha1().digestHex(body)));
+            }
+        }
+        // 2.预加载，Redis暂时不可用时不影响启动，首次执行时再加载
+        try {
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                for (Script script : scripts.values()) {
+                    load(connection, script);
+                }
+                return null;
+            });
+            log.info("已加载lua脚本 {}", scripts.keySet());
+        } catch (Exception e) {
+            log.warn("预加载lua脚本失败，将在首次执行时加载", e);
+        }
+    }
+
+    /**
+     * EVALSHA 执行脚本
+     * @param name 脚本文件名，不含 .lua
+     * @param resultType 返回类型：Long、Boolean、String 或 List（元素为Long或String）
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String name, Class<T> resultType, List<String> keys, Object... args) {
+        Script script = scripts.get(name);
+        if (script == null) {
+            throw new IllegalArgumentException("lua脚本不存在: " + name);
+        }
+        byte[][] keysAndArgs = new byte[keys.size() + args.length][];
+        for (int i = 0; i < keys.size(); i++) {
+            keysAndArgs[i] = keys.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+        for (int i = 0; i < args.length; i++) {
+            keysAndArgs[keys.size() + i] = String.valueOf(args[i]).getBytes(StandardCharsets.UTF_8);
+        }
+        ReturnType returnType = ReturnType.fromJavaType(resultType);
+        long begin = System.nanoTime();
+        try {
+            Object result = stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+                try {
+                    return connection.evalSha(script.sha, returnType, keys.size(), keysAndArgs);
+                } catch (RuntimeException e) {
+                    if (!isNoScript(e)) {
+                        throw e;
+                    }
+                    // 脚本缓存已丢失：重新加载后重试
+                    log.warn("lua脚本 {} 不在Redis缓存中，重新加载", name);
+                    script.reloads.increment();
+                    load(connection, script);
+                    return connection.evalSha(script.sha, returnType, keys.size(), keysAndArgs);
+                }
+            });
+            return (T) deserialize(result);
+        } catch (RuntimeException e) {
+            script.errors.increment();
+            throw e;
+        } finally {
+            script.record(System.nanoTime() - begin);
+        }
+    }
+
+    /**
+     * 各脚本的调用次数、失败次数、重新加载次数和耗时
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Script script : scripts.values()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            long calls = script.calls.sum();
+            item.put("sha", script.sha);
+            item.put("calls", calls);
+            item.put("errors", script.errors.sum());
+            item.put("reloads", script.reloads.sum());
+            item.put("avgMicros", calls == 0 ? 0 : script.totalNanos.sum() / calls / 1000);
+            item.put("maxMicros", script.maxNanos.get() / 1000);
+            stats.put(script.name, item);
+        }
+        return stats;
+    }
+
+    private static void load(RedisConnection connection, Script script) {
+        String sha = connection.scriptLoad(script.body);
+        if (!script.sha.equals(sha)) {
+            throw new IllegalStateException("lua脚本 " + script.name + " 的sha1不一致: " + script.sha + " / " + sha);
+        }
+    }
+
+    private static boolean isNoScript(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t.getMessage() != null && t.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Object deserialize(Object result) {
+        if (result instanceof byte[]) {
+            return new String((byte[]) result, StandardCharsets.UTF_8);
+        }
+        if (result instanceof List) {
+            List<?> list = (List<?>) result;
+            List<Object> values = new ArrayList<>(list.size());
+            for (Object value : list) {
+                values.add(deserialize(value));
+            }
+            return values;
+        }
+        return result;
+    }
+
+    private static class Script {
+        private final String name;
+        private final byte[] body;
+        private final String sha;
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder reloads = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private Script(String name, byte[] body, String sha) {
+            this.name = name;
+            this.body = body;
+            this.sha = sha;
+        }
+
+        private void record(long nanos) {
+            calls.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 秒杀限流。
+ * 精确限流是 seckill.lua 中按 用户+券 的令牌桶，与秒杀在同一次脚本调用中完成；
+ * 本地再按用户做一个粗粒度的每秒计数，超过阈值的请求在本节点直接拒绝并封禁一段时间。
+ */
+@Component
+public class SeckillRateLimiter {
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final double defaultRate;
+    private final int defaultBurst;
+    private final int localMaxPerSecond;
+    private final long localBanMillis;
+
+    private final ConcurrentHashMap<Long, Counter> counters = new ConcurrentHashMap<>();
+    private final LongAdder localRejected = new LongAdder();
+    private final LongAdder redisRejected = new LongAdder();
+
+    public SeckillRateLimiter(StringRedisTemplate stringRedisTemplate,
+                              @Value("${hmdp.seckill.rate-limit.rate:5}") double defaultRate,
+                              @Value("${hmdp.seckill.rate-limit.burst:10}") int defaultBurst,
+                              @Value("${hmdp.seckill.rate-limit.local-max-per-second:50}") int localMaxPerSecond,
+                              @Value("${hmdp.seckill.rate-limit.local-ban-seconds:10}") long localBanSeconds) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.defaultRate = defaultRate;
+        this.defaultBurst = defaultBurst;
+        this.localMaxPerSecond = localMaxPerSecond;
+        this.localBanMillis = localBanSeconds * 1000;
+    }
+
+    public String limitKey(Long voucherId, Long userId) {
+        return RedisConstants.SECKILL_LIMIT_KEY + voucherId + ":" + userId;
+    }
+
+    public String defaultRate() {
+        return String.valueOf(defaultRate);
+    }
+
+    public String defaultBurst() {
+        return String.valueOf(defaultBurst);
+    }
+
+    /**
+     * 本地预过滤
+     * @return false 表示该用户请求过于频繁，已被本节点封禁
+     */
+    public boolean tryAcquireLocal(Long userId) {
+        long now = System.currentTimeMillis();
+        Counter counter = counters.computeIfAbsent(userId, id -> new Counter());
+        if (now < counter.bannedUntil) {
+            localRejected.increment();
+            return false;
+        }
+        long second = now / 1000;
+        if (counter.second != second) {
+            counter.second = second;
+            counter.count.set(0);
+        }
+        if (counter.count.incrementAndGet() > localMaxPerSecond) {
+            counter.bannedUntil = now + localBanMillis;
+            localRejected.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 记录一次被lua令牌桶拒绝的请求
+     */
+    public void recordRejected() {
+        redisRejected.increment();
+    }
+
+    /**
+     * 为单张券设置限流，写入 seckill:voucher:{id}，lua脚本优先使用
+     * @param rate  每秒补充的令牌数，小于等于0表示该券不限流
+     * @param burst 桶容量
+     */
+    public void saveVoucherLimit(Long voucherId, double rate, int burst) {
+        Map<String, String> fields = new HashMap<>(2);
+        fields.put("rate", String.valueOf(rate));
+        fields.put("burst", String.valueOf(burst));
+        stringRedisTemplate.opsForHash().putAll(RedisConstants.SECKILL_VOUCHER_KEY + voucherId, fields);
+    }
+
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("localRejected", localRejected.sum());
+        stats.put("redisRejected", redisRejected.sum());
+        stats.put("trackedUsers", counters.size());
+        return stats;
+    }
+
+    /**
+     * 清理已不活跃且未被封禁的用户计数，控制内存
+     */
+    @Scheduled(fixedDelay = 10000)
+    public void evictIdleCounters() {
+        long now = System.currentTimeMillis();
+        long second = now / 1000;
+        counters.entrySet().removeIf(e -> e.getValue().second < second - 1 && e.getValue().bannedUntil < now);
+    }
+
+    private static class Counter {
+        private volatile long second;
+        private volatile long bannedUntil;
+        private final AtomicInteger count = new AtomicInteger();
+    }
+}
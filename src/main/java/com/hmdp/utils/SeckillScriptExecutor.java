@@ -0,0 +1,234 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 执行 seckill.lua。
+ * 开启批量模式后，并发请求先进入队列，由刷新线程在一个很短的窗口内凑批，一次脚本调用处理整批请求，
+ * 减少每个请求的 Redis RTT 和连接池争用；队列满时退化为直接执行。
+ * 请求在 result-timeout-millis 内未被刷新线程取走时放弃，刷新线程跳过已放弃的请求，不会在返回失败后再扣库存；
+ * 已取走的请求一直等到脚本返回（脚本调用本身受Redis命令超时限制）。
+ * 整批脚本调用失败时逐个确认：订单状态key已存在说明该请求已执行成功，否则单独重新执行。
+ */
+@Slf4j
+@Component
+public class SeckillScriptExecutor {
+
+    private static final int QUEUE_CAPACITY = 10000;
+    /**
+     * 每个请求在 KEYS 中的个数，第4个为订单状态key
+     */
+    private static final int KEYS_PER_REQUEST = 6;
+    private static final int STATUS_KEY_INDEX = 3;
+
+    private final RedisScriptRegistry scriptRegistry;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final long resultTimeoutMillis;
+    private final boolean batchEnabled;
+    private final long windowMillis;
+    private final int maxSize;
+    private final int flushers;
+
+    private final BlockingQueue<SeckillRequest> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private ExecutorService flushExecutor;
+    private volatile boolean running = true;
+
+    public SeckillScriptExecutor(RedisScriptRegistry scriptRegistry, StringRedisTemplate stringRedisTemplate,
+                                 @Value("${hmdp.seckill.batch.enabled:false}") boolean batchEnabled,
+                                 @Value("${hmdp.seckill.batch.window-millis:2}") long windowMillis,
+                                 @Value("${hmdp.seckill.batch.max-size:64}") int maxSize,
+                                 @Value("${hmdp.seckill.batch.flushers:4}") int flushers,
+                                 @Value("${hmdp.seckill.batch.result-timeout-millis:3000}") long resultTimeoutMillis) {
+        this.scriptRegistry = scriptRegistry;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.resultTimeoutMillis = resultTimeoutMillis;
+        this.batchEnabled = batchEnabled;
+        this.windowMillis = windowMillis;
+        this.maxSize = maxSize;
+        this.flushers = flushers;
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!batchEnabled) {
+            return;
+        }
+        flushExecutor = Executors.newFixedThreadPool(flushers);
+        for (int i = 0; i < flushers; i++) {
+            flushExecutor.submit(this::flushLoop);
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        if (flushExecutor != null) {
+            flushExecutor.shutdown();
+        }
+    }
+
+    /**
+     * 执行一次秒杀
+     * @param keys 库存key、订单key、券信息key、订单状态key、限流key、幂等记录key
+     * @param args 券id、用户id、订单id、是否预占、订单状态过期时间、默认限流速率、默认限流容量、幂等记录过期时间
+     * @return 脚本结果码（Long）；幂等键命中时为原订单id（String）
+     */
+    public Object execute(List<String> keys, String... args) {
+        SeckillRequest request = new SeckillRequest(keys, args);
+        if (!batchEnabled || !queue.offer(request)) {
+            List<Object> results = executeScript(keys, Arrays.asList(args));
+            return results.get(0);
+        }
+        try {
+            try {
+                return request.future.get(resultTimeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // 1.还在队列中：放弃，刷新线程不会再执行
+                if (request.abandon()) {
+                    throw new RuntimeException("秒杀请求排队超时", e);
+                }
+                // 2.已被取走执行，结果未知前不能返回失败，等待脚本返回
+                return request.future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("秒杀脚本执行失败", e.getCause());
+        }
+    }
+
+    private void flushLoop() {
+        List<SeckillRequest> batch = new ArrayList<>(maxSize);
+        while (running) {
+            try {
+                // 1.阻塞等待第一个请求
+                SeckillRequest first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // 2.在窗口期内继续凑批，直到达到最大批次
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(windowMillis);
+                while (batch.size() < maxSize) {
+                    long remaining = deadline - System.nanoTime();
+                    SeckillRequest next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                // 3.一次脚本调用处理整批
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<SeckillRequest> batch) {
+        // 1.跳过调用方已放弃的请求
+        List<SeckillRequest> taken = new ArrayList<>(batch.size());
+        for (SeckillRequest request : batch) {
+            if (request.take()) {
+                taken.add(request);
+            }
+        }
+        if (taken.isEmpty()) {
+            return;
+        }
+        List<String> keys = new ArrayList<>(taken.size() * KEYS_PER_REQUEST);
+        List<String> args = new ArrayList<>(taken.size() * 8);
+        for (SeckillRequest request : taken) {
+            keys.addAll(request.keys);
+            args.addAll(Arrays.asList(request.args));
+        }
+        try {
+            List<Object> results = executeScript(keys, args);
+            for (int i = 0; i < taken.size(); i++) {
+                taken.get(i).future.complete(results.get(i));
+            }
+        } catch (Exception e) {
+            // 2.整批失败时不知道哪些请求已经执行，逐个确认
+            log.error("批量执行秒杀脚本失败，批次大小 {}，逐个确认", taken.size(), e);
+            for (SeckillRequest request : taken) {
+                resolve(request);
+            }
+        } finally {
+            for (SeckillRequest request : taken) {
+                request.future.completeExceptionally(new IllegalStateException("秒杀脚本未返回结果"));
+            }
+        }
+    }
+
+    /**
+     * 订单状态key只在扣减成功时写入：已存在说明该请求执行成功，否则单独重新执行（重复下单、限流等由脚本自行判断）
+     */
+    private void resolve(SeckillRequest request) {
+        try {
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(request.keys.get(STATUS_KEY_INDEX)))) {
+                request.future.complete(0L);
+                return;
+            }
+            request.future.complete(executeScript(request.keys, Arrays.asList(request.args)).get(0));
+        } catch (Exception e) {
+            request.future.completeExceptionally(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object> executeScript(List<String> keys, List<String> args) {
+        return (List<Object>) scriptRegistry.execute("seckill", List.class, keys, args.toArray());
+    }
+
+    private static class SeckillRequest {
+        private static final int PENDING = 0;
+        private static final int TAKEN = 1;
+        private static final int ABANDONED = 2;
+
+        private final List<String> keys;
+        private final String[] args;
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        private SeckillRequest(List<String> keys, String[] args) {
+            this.keys = keys;
+            this.args = args;
+        }
+
+        /**
+         * 刷新线程取走请求，已放弃的返回 false
+         */
+        private boolean take() {
+            return state.compareAndSet(PENDING, TAKEN);
+        }
+
+        /**
+         * 调用方放弃等待，已被取走的返回 false
+         */
+        private boolean abandon() {
+            return state.compareAndSet(PENDING, ABANDONED);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 秒杀库存分片。
+ * 分片数为1时沿用 seckill:stock:{id} / seckill:order:{id}；
+ * 分片数为N时库存拆到 seckill:stock:{id}:{i}，用户去重集合按用户hash固定落在 seckill:order:{id}:{i}，
+ * 同一用户永远只查同一个去重分片，因此去重在全局仍然正确。
+ */
+@Component
+public class SeckillStockShards {
+
+    /**
+     * 每个分片至少分到的库存，库存太少时分片只会让回退次数变多
+     */
+    private static final int MIN_STOCK_PER_SHARD = 100;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final int defaultShards;
+    /**
+     * voucherId -> 分片数，券创建后分片数不再变化，可以一直缓存
+     */
+    private final ConcurrentHashMap<Long, Integer> shardCounts = new ConcurrentHashMap<>();
+
+    public SeckillStockShards(StringRedisTemplate stringRedisTemplate,
+                              @Value("${hmdp.seckill.stock-shards:1}") int defaultShards) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.defaultShards = Math.max(1, defaultShards);
+    }
+
+    /**
+     * 按配置和库存量决定新券的分片数
+     */
+    public int decideShards(int stock) {
+        return Math.max(1, Math.min(defaultShards, stock / MIN_STOCK_PER_SHARD));
+    }
+
+    /**
+     * 写入各分片库存以及分片数，余数分给前几个分片
+     */
+    public void initStock(Long voucherId, int stock, int shards) {
+        Map<String, String> values = new HashMap<>(shards + 1);
+        for (int i = 0; i < shards; i++) {
+            values.put(stockKey(voucherId, i, shards), String.valueOf(stock / shards + (i < stock % shards ? 1 : 0)));
+        }
+        values.put(RedisConstants.SECKILL_SHARDS_KEY + voucherId, String.valueOf(shards));
+        stringRedisTemplate.opsForValue().multiSet(values);
+        shardCounts.put(voucherId, shards);
+    }
+
+    /**
+     * 只写入不存在的分片库存，已有的分片保留当前值，活动进行中重建时不会覆盖已发生的扣减
+     * @return 写入的分片数
+     */
+    public int initStockIfAbsent(Long voucherId, int stock, int shards) {
+        int written = 0;
+        for (int i = 0; i < shards; i++) {
+            String value = String.valueOf(stock / shards + (i < stock % shards ? 1 : 0));
+            if (Boolean.TRUE.equals(stringRedisTemplate.opsForValue().setIfAbsent(stockKey(voucherId, i, shards), value))) {
+                written++;
+            }
+        }
+        stringRedisTemplate.opsForValue().setIfAbsent(RedisConstants.SECKILL_SHARDS_KEY + voucherId, String.valueOf(shards));
+        shardCounts.put(voucherId, shards);
+        return written;
+    }
+
+    public int shardCount(Long voucherId) {
+        return shardCounts.computeIfAbsent(voucherId, id -> {
+            String shards = stringRedisTemplate.opsForValue().get(RedisConstants.SECKILL_SHARDS_KEY + id);
+            return StrUtil.isNumeric(shards) ? Integer.parseInt(shards) : 1;
+        });
+    }
+
+    /**
+     * 用户的去重分片，也是优先扣减库存的分片
+     */
+    public int homeShard(Long userId, int shards) {
+        return (int) Math.floorMod(userId, (long) shards);
+    }
+
+    public String stockKey(Long voucherId, int shard, int shards) {
+        return shards == 1 ? RedisConstants.SECKILL_STOCK_KEY + voucherId : RedisConstants.SECKILL_STOCK_KEY + voucherId + ":" + shard;
+    }
+
+    public String orderKey(Long voucherId, int shard, int shards) {
+        return shards == 1 ? RedisConstants.SECKILL_ORDER_KEY + voucherId : RedisConstants.SECKILL_ORDER_KEY + voucherId + ":" + shard;
+    }
+
+    /**
+     * 券的全部库存key
+     */
+    public List<String> stockKeys(Long voucherId) {
+        int shards = shardCount(voucherId);
+        List<String> keys = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            keys.add(stockKey(voucherId, i, shards));
+        }
+        return keys;
+    }
+
+    /**
+     * 券的全部去重集合key
+     */
+    public List<String> orderKeys(Long voucherId) {
+        int shards = shardCount(voucherId);
+        List<String> keys = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            keys.add(orderKey(voucherId, i, shards));
+        }
+        return keys;
+    }
+
+    /**
+     * 用户所在的去重集合
+     */
+    public String orderKeyOfUser(Long voucherId, Long userId) {
+        int shards = shardCount(voucherId);
+        return orderKey(voucherId, homeShard(userId, shards), shards);
+    }
+}
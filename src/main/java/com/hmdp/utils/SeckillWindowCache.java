@@ -0,0 +1,110 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 秒杀券的开始/结束时间。
+ * 时间以毫秒时间戳存入 seckill:voucher:{id}，由 seckill.lua 用Redis时钟做最终判断；
+ * 本地缓存一份，明显不在活动时间内的请求直接拒绝，不访问Redis。
+ */
+@Component
+public class SeckillWindowCache {
+
+    public static final int OPEN = 0;
+    public static final int NOT_STARTED = 4;
+    public static final int ENDED = 5;
+
+    private static final String BEGIN_FIELD = "begin";
+    private static final String END_FIELD = "end";
+    /**
+     * 本地缓存有效期，活动时间被修改后最多这么久生效
+     */
+    private static final long CACHE_TTL_MILLIS = 60_000L;
+    /**
+     * 允许的节点与Redis之间的时钟误差，误差范围内交给lua判断
+     */
+    private static final long CLOCK_SKEW_MILLIS = 1000L;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ConcurrentHashMap<Long, Window> windows = new ConcurrentHashMap<>();
+
+    public SeckillWindowCache(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    public String metaKey(Long voucherId) {
+        return RedisConstants.SECKILL_VOUCHER_KEY + voucherId;
+    }
+
+    /**
+     * 写入活动时间，与库存一起在新增秒杀券时调用
+     */
+    public void save(Long voucherId, LocalDateTime beginTime, LocalDateTime endTime) {
+        long begin = toEpochMilli(beginTime);
+        long end = toEpochMilli(endTime);
+        Map<String, String> fields = new HashMap<>(2);
+        fields.put(BEGIN_FIELD, String.valueOf(begin));
+        fields.put(END_FIELD, String.valueOf(end));
+        stringRedisTemplate.opsForHash().putAll(metaKey(voucherId), fields);
+        windows.put(voucherId, new Window(begin, end));
+    }
+
+    /**
+     * 本地预检
+     * @return OPEN、NOT_STARTED 或 ENDED
+     */
+    public int check(Long voucherId) {
+        long now = System.currentTimeMillis();
+        Window window = windows.get(voucherId);
+        if (window == null || now - window.loadedAt > CACHE_TTL_MILLIS) {
+            window = load(voucherId);
+            windows.put(voucherId, window);
+        }
+        // 未写入的边界不做限制，也不参与加减，避免溢出
+        if (window.begin != null && now < window.begin - CLOCK_SKEW_MILLIS) {
+            return NOT_STARTED;
+        }
+        if (window.end != null && now > window.end + CLOCK_SKEW_MILLIS) {
+            return ENDED;
+        }
+        return OPEN;
+    }
+
+    private Window load(Long voucherId) {
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(metaKey(voucherId), Arrays.asList(BEGIN_FIELD, END_FIELD));
+        Object begin = values.get(0);
+        Object end = values.get(1);
+        // 没有写入活动时间的旧券（或只写了限流配置）不做限制
+        return new Window(
+                begin != null && StrUtil.isNumeric(begin.toString()) ? Long.valueOf(begin.toString()) : null,
+                end != null && StrUtil.isNumeric(end.toString()) ? Long.valueOf(end.toString()) : null);
+    }
+
+    private static long toEpochMilli(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static class Window {
+        /**
+         * 为 null 表示未写入该边界
+         */
+        private final Long begin;
+        private final Long end;
+        private final long loadedAt = System.currentTimeMillis();
+
+        private Window(Long begin, Long end) {
+            this.begin = begin;
+            this.end = end;
+        }
+    }
+}
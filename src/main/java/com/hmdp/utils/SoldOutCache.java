@@ -0,0 +1,91 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 秒杀券本地售罄标记。
+ * 售罄后的请求直接在JVM内拒绝，不再执行lua脚本；标记变化通过 Redis pub/sub 同步到其它节点。
+ */
+@Slf4j
+@Component
+public class SoldOutCache implements MessageListener {
+
+    /**
+     * 标记的有效期，防止丢失清除消息后券永远无法再被抢购
+     */
+    private static final long SOLD_OUT_TTL_MILLIS = 60_000L;
+    private static final String MARK = "1:";
+    private static final String CLEAR = "0:";
+
+    /**
+     * voucherId -> 标记时间
+     */
+    private final ConcurrentHashMap<Long, Long> soldOut = new ConcurrentHashMap<>();
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+
+    public SoldOutCache(StringRedisTemplate stringRedisTemplate, RedisMessageListenerContainer listenerContainer) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.listenerContainer = listenerContainer;
+    }
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(RedisConstants.SECKILL_SOLD_OUT_CHANNEL));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        Long markedAt = soldOut.get(voucherId);
+        if (markedAt == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - markedAt > SOLD_OUT_TTL_MILLIS) {
+            soldOut.remove(voucherId, markedAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 标记售罄，只有本节点首次标记时才广播，避免售罄后每个请求都发布消息
+     */
+    public void markSoldOut(Long voucherId) {
+        if (soldOut.putIfAbsent(voucherId, System.currentTimeMillis()) == null) {
+            stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, MARK + voucherId);
+        }
+    }
+
+    /**
+     * 库存补充后清除标记并广播
+     */
+    public void clear(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(RedisConstants.SECKILL_SOLD_OUT_CHANNEL, CLEAR + voucherId);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        String voucherId = StrUtil.subAfter(body, ":", false);
+        if (!StrUtil.isNumeric(voucherId)) {
+            log.warn("无效的售罄消息: {}", body);
+            return;
+        }
+        if (body.startsWith(MARK)) {
+            soldOut.putIfAbsent(Long.valueOf(voucherId), System.currentTimeMillis());
+        } else if (body.startsWith(CLEAR)) {
+            soldOut.remove(Long.valueOf(voucherId));
+        }
+    }
+}
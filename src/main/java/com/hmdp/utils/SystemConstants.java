@@ -5,4 +5,12 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    /**
+     * 订单状态：未支付
+     */
+    public static final int ORDER_STATUS_UNPAID = 1;
+    /**
+     * 订单状态：已取消
+     */
+    public static final int ORDER_STATUS_CANCELLED = 4;
 }
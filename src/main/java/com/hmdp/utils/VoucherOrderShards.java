@@ -0,0 +1,122 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.extension.plugins.handler.TableNameHandler;
+import cn.hutool.core.util.StrUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * 订单表按 user_id 水平拆分。
+ * 用户的低 {@link RedisIdWorker#GENE_BITS} 位作为分片基因写入订单id的低位，
+ * 因此按用户查询和按订单id查询都能直接算出分片：shard = gene % 分片数。
+ * 分片数为1时沿用 tb_voucher_order；为N时表名为 table-pattern 中 {} 替换为分片号，
+ * 如 tb_voucher_order_{} 拆成同库多表，hmdp_order_{}.tb_voucher_order 拆到同一实例的多个库。
+ * 访问订单表前必须用 {@link #route} 指定分片，由 MybatisConfig 中的动态表名插件改写SQL。
+ * 分表前的旧订单由 db/voucher_order_shards.sql 按 user_id 迁移，其id低位不是分片基因，
+ * 因此已知用户时一律按 {@link #shardOfUser} 路由，新旧订单都能找到。
+ */
+@Component
+public class VoucherOrderShards implements TableNameHandler {
+
+    public static final String TABLE = "tb_voucher_order";
+    private static final long GENE_MASK = (1L << RedisIdWorker.GENE_BITS) - 1;
+    private static final ThreadLocal<Integer> CURRENT = new ThreadLocal<>();
+
+    private final int shards;
+    private final String tablePattern;
+
+    public VoucherOrderShards(@Value("${hmdp.order.table-shards:1}") int shards,
+                              @Value("${hmdp.order.table-pattern:tb_voucher_order_{}}") String tablePattern) {
+        // 分片号由基因取模得到，分片数必须整除基因空间，否则同一基因的订单和用户会落到不同分片
+        if (shards < 1 || (GENE_MASK + 1) % shards != 0) {
+            throw new IllegalArgumentException("hmdp.order.table-shards 必须是 " + (GENE_MASK + 1) + " 的约数");
+        }
+        this.shards = shards;
+        this.tablePattern = tablePattern;
+    }
+
+    public int shardCount() {
+        return shards;
+    }
+
+    /**
+     * 生成订单id时使用的分片基因
+     */
+    public long gene(Long userId) {
+        return userId & GENE_MASK;
+    }
+
+    public int shardOfUser(Long userId) {
+        return (int) (gene(userId) % shards);
+    }
+
+    /**
+     * 只对分表后生成的订单id有效，分表前的旧订单按id算出的分片可能不对，已知用户时用 {@link #shardOfUser}
+     */
+    public int shardOfOrder(Long orderId) {
+        return (int) ((orderId & GENE_MASK) % shards);
+    }
+
+    public String tableName(int shard) {
+        return shards == 1 ? TABLE : StrUtil.format(tablePattern, shard);
+    }
+
+    /**
+     * 在指定分片上执行，可嵌套
+     */
+    public <T> T route(int shard, Supplier<T> action) {
+        Integer previous = CURRENT.get();
+        CURRENT.set(shard);
+        try {
+            return action.get();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * 依次在每个分片上执行，返回各分片的结果
+     */
+    public <T> List<T> routeAll(Supplier<T> action) {
+        List<T> results = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            results.add(route(i, action));
+        }
+        return results;
+    }
+
+    /**
+     * 按用户所在分片分组
+     */
+    public <T> Map<Integer, List<T>> groupByUser(Collection<T> items, Function<T, Long> userId) {
+        Map<Integer, List<T>> groups = new LinkedHashMap<>();
+        for (T item : items) {
+            groups.computeIfAbsent(shardOfUser(userId.apply(item)), k -> new ArrayList<>()).add(item);
+        }
+        return groups;
+    }
+
+    @Override
+    public String dynamicTableName(String sql, String tableName) {
+        if (shards == 1) {
+            return tableName;
+        }
+        Integer shard = CURRENT.get();
+        if (shard == null) {
+            throw new IllegalStateException(TABLE + " 已分表，访问前需要指定分片: " + sql);
+        }
+        return tableName(shard);
+    }
+}
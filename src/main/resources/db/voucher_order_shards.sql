@@ -0,0 +1,16 @@
+-- ----------------------------
+-- tb_voucher_order 按 user_id 分成4张表（hmdp.order.table-shards=4）
+-- 分片数须为16的约数；按库拆分时把表名换成 hmdp_order_{i}.tb_voucher_order 并先建库
+-- ----------------------------
+CREATE TABLE IF NOT EXISTS `tb_voucher_order_0` LIKE `tb_voucher_order`;
+CREATE TABLE IF NOT EXISTS `tb_voucher_order_1` LIKE `tb_voucher_order`;
+CREATE TABLE IF NOT EXISTS `tb_voucher_order_2` LIKE `tb_voucher_order`;
+CREATE TABLE IF NOT EXISTS `tb_voucher_order_3` LIKE `tb_voucher_order`;
+
+-- 迁移已有订单：按 user_id 分配，与按用户查询、一人一单校验使用的分片一致。
+-- 分表后的订单id低4位是用户id低4位（分片基因），旧订单id的低位只是序列号，按id算出的分片与这里不一定相同，
+-- 所以应用中按id访问订单（查询状态、超时取消）时都带上用户id，按 user_id 路由
+INSERT IGNORE INTO `tb_voucher_order_0` SELECT * FROM `tb_voucher_order` WHERE (`user_id` & 15) % 4 = 0;
+INSERT IGNORE INTO `tb_voucher_order_1` SELECT * FROM `tb_voucher_order` WHERE (`user_id` & 15) % 4 = 1;
+INSERT IGNORE INTO `tb_voucher_order_2` SELECT * FROM `tb_voucher_order` WHERE (`user_id` & 15) % 4 = 2;
+INSERT IGNORE INTO `tb_voucher_order_3` SELECT * FROM `tb_voucher_order` WHERE (`user_id` & 15) % 4 = 3;
@@ -0,0 +1,7 @@
+-- 续约 worker id：只有租约仍属于当前节点时才延长过期时间
+-- KEYS[1] 租约key icr:worker:{workerId}
+-- ARGV[1] 节点标识，ARGV[2] 租约时长（毫秒）
+if(redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('pexpire', KEYS[1], ARGV[2])
+end
+return 0
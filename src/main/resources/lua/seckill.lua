@@ -0,0 +1,120 @@
+---
+--- Generated by Luanalysis
+--- Created by 为你摁下F键.
+--- DateTime: 2024/3/25 22:59
+---
+-- 支持一次处理多个秒杀请求（批量模式），单个请求即为长度为1的批次
+-- 每个请求占用6个KEYS、8个ARGV，按请求顺序返回结果数组
+local KEYS_PER_REQUEST = 6
+local ARGS_PER_REQUEST = 8
+
+-- 0.使用Redis时钟判断活动时间和限流，TIME之后还有写命令，需要按命令复制
+redis.replicate_commands()
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+-- 令牌桶限流，桶内记录剩余令牌数和上次补充时间
+-- rate 每秒补充的令牌数，burst 桶容量；rate <= 0 表示不限流
+local function acquire(limitKey, rate, burst)
+    if(rate <= 0) then
+        return true
+    end
+    local bucket = redis.call('hmget', limitKey, 'tokens', 'ts')
+    local tokens = tonumber(bucket[1]) or burst
+    local ts = tonumber(bucket[2]) or now
+    tokens = math.min(burst, tokens + math.max(0, now - ts) * rate / 1000)
+    local allowed = tokens >= 1
+    if(allowed) then
+        tokens = tokens - 1
+    end
+    redis.call('hmset', limitKey, 'tokens', tostring(tokens), 'ts', tostring(now))
+    -- 桶装满所需时间之后即可删除
+    redis.call('pexpire', limitKey, math.ceil(burst * 1000 / rate) + 1000)
+    return allowed
+end
+
+-- 1.单个秒杀请求，k、a 为该请求在 KEYS、ARGV 中的偏移
+local function seckill(k, a)
+    -- 1.0.参数
+    -- 库存key seckill:stock:{voucherId}[:{shard}]
+    local stockKey = KEYS[k + 1]
+    -- 订单key seckill:order:{voucherId}[:{shard}]
+    local orderKey = KEYS[k + 2]
+    -- 券信息 seckill:voucher:{voucherId}，begin/end 为毫秒时间戳，rate/burst 为该券的限流配置
+    local metaKey = KEYS[k + 3]
+    -- 订单状态 seckill:order:status:{orderId}，值为 状态:用户id
+    local statusKey = KEYS[k + 4]
+    -- 限流令牌桶 seckill:limit:{voucherId}:{userId}
+    local limitKey = KEYS[k + 5]
+    -- 幂等记录 seckill:idem:{voucherId}:{userId}:{幂等键}，请求未携带幂等键时为空串
+    local idemKey = KEYS[k + 6]
+    local voucherId = ARGV[a + 1]
+    local userId = ARGV[a + 2]
+    local orderId = ARGV[a + 3]
+    -- 库存分片为空时是否为用户预占去重位，由调用方去其它分片扣减（分片模式下为1）
+    local reserveOnEmpty = ARGV[a + 4]
+    -- 排队中状态的过期时间（秒）
+    local statusTtl = ARGV[a + 5]
+    -- 幂等记录的过期时间（秒）
+    local idemTtl = ARGV[a + 8]
+
+    -- 1.1.相同幂等键已下单成功（客户端重试），直接返回原订单id，不再限流和扣减
+    if(idemKey ~= '') then
+        local origin = redis.call('get', idemKey)
+        if(origin) then
+            return origin
+        end
+    end
+    local meta = redis.call('hmget', metaKey, 'begin', 'end', 'rate', 'burst')
+    -- 1.2.限流，券未单独配置时使用默认值
+    local rate = tonumber(meta[3]) or tonumber(ARGV[a + 6])
+    local burst = tonumber(meta[4]) or tonumber(ARGV[a + 7])
+    if(not acquire(limitKey, rate, burst)) then
+        -- 请求过于频繁，返回6
+        return 6
+    end
+    -- 1.3.判断活动时间，未写入活动时间的券不限制
+    if(meta[1] and now < tonumber(meta[1])) then
+        -- 未开始，返回4
+        return 4
+    end
+    if(meta[2] and now > tonumber(meta[2])) then
+        -- 已结束，返回5
+        return 5
+    end
+    -- 1.4.判断用户是否下单 SISMEMBER orderKey userId
+    if(redis.call('sismember', orderKey, userId) == 1) then
+        -- 存在，说明是重复下单，返回2
+        return 2
+    end
+    -- 1.5.判断库存是否充足 get stockKey，库存key缺失（未预热）按售罄处理
+    if((tonumber(redis.call('get', stockKey)) or 0) <= 0) then
+        if(reserveOnEmpty == '1') then
+            -- 分片模式：预占去重位，返回3由调用方回退到其它分片
+            redis.call('sadd', orderKey, userId)
+            return 3
+        end
+        -- 库存不足，返回1
+        return 1
+    end
+    -- 1.6.扣库存 incrby stockKey -1
+    redis.call('incrby', stockKey, -1)
+    -- 1.7.下单（保存用户）sadd orderKey userId
+    redis.call('sadd', orderKey, userId)
+    -- 1.8.发送消息到队列中， XADD stream.orders * k1 v1 k2 v2 ...
+    redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+    -- 1.9.记录订单状态：排队中
+    redis.call('set', statusKey, '0:' .. userId, 'EX', statusTtl)
+    -- 1.10.记录幂等键对应的订单id
+    if(idemKey ~= '') then
+        redis.call('set', idemKey, orderId, 'EX', idemTtl)
+    end
+    return 0
+end
+
+-- 2.依次处理批次中的请求
+local results = {}
+for i = 1, #KEYS / KEYS_PER_REQUEST do
+    results[i] = seckill((i - 1) * KEYS_PER_REQUEST, (i - 1) * ARGS_PER_REQUEST)
+end
+return results
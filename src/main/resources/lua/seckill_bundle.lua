@@ -0,0 +1,92 @@
+---
+--- 组合秒杀：一次抢多张券，全部成功或全部失败
+---
+-- ARGV：用户id、订单状态过期时间、默认限流速率、默认限流容量，之后每张券依次为 券id、订单id、库存分片数
+-- KEYS：每张券依次为 用户所在的去重key、券信息key、限流key、订单状态key、各库存分片key
+local userId = ARGV[1]
+local statusTtl = ARGV[2]
+local defaultRate = tonumber(ARGV[3])
+local defaultBurst = tonumber(ARGV[4])
+
+redis.replicate_commands()
+local time = redis.call('time')
+local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+-- 令牌桶限流，算法与 seckill.lua 相同，拆成两步：校验阶段只计算补充后的令牌数，全部通过后才扣减令牌
+-- rate <= 0 表示不限流，返回 nil
+local function refill(limitKey, rate, burst)
+    if(rate <= 0) then
+        return nil
+    end
+    local bucket = redis.call('hmget', limitKey, 'tokens', 'ts')
+    local tokens = tonumber(bucket[1]) or burst
+    local ts = tonumber(bucket[2]) or now
+    return math.min(burst, tokens + math.max(0, now - ts) * rate / 1000)
+end
+
+local function consume(v)
+    if(not v.tokens) then
+        return
+    end
+    redis.call('hmset', v.limitKey, 'tokens', tostring(v.tokens - 1), 'ts', tostring(now))
+    redis.call('pexpire', v.limitKey, math.ceil(v.burst * 1000 / v.rate) + 1000)
+end
+
+-- 1.校验所有券（限流、活动时间、重复下单、库存），记录每张券要扣减的库存分片和令牌桶；
+-- 这一步只读不写，任意一张不满足直接返回，不消耗令牌也不扣减库存
+local vouchers = {}
+local k = 0
+local a = 4
+while(a < #ARGV) do
+    local v = {
+        voucherId = ARGV[a + 1],
+        orderId = ARGV[a + 2],
+        orderKey = KEYS[k + 1],
+        limitKey = KEYS[k + 3],
+        statusKey = KEYS[k + 4]
+    }
+    local shards = tonumber(ARGV[a + 3])
+    local meta = redis.call('hmget', KEYS[k + 2], 'begin', 'end', 'rate', 'burst')
+    -- 1.1.限流
+    v.rate = tonumber(meta[3]) or defaultRate
+    v.burst = tonumber(meta[4]) or defaultBurst
+    v.tokens = refill(v.limitKey, v.rate, v.burst)
+    if(v.tokens and v.tokens < 1) then
+        return {6, #vouchers + 1}
+    end
+    -- 1.2.活动时间
+    if(meta[1] and now < tonumber(meta[1])) then
+        return {4, #vouchers + 1}
+    end
+    if(meta[2] and now > tonumber(meta[2])) then
+        return {5, #vouchers + 1}
+    end
+    -- 1.3.重复下单
+    if(redis.call('sismember', v.orderKey, userId) == 1) then
+        return {2, #vouchers + 1}
+    end
+    -- 1.4.从用户所在分片开始找一个有库存的分片
+    for i = 1, shards do
+        local stockKey = KEYS[k + 4 + i]
+        if((tonumber(redis.call('get', stockKey)) or 0) > 0) then
+            v.stockKey = stockKey
+            break
+        end
+    end
+    if(not v.stockKey) then
+        return {1, #vouchers + 1}
+    end
+    vouchers[#vouchers + 1] = v
+    k = k + 4 + shards
+    a = a + 3
+end
+
+-- 2.全部满足，依次扣令牌、扣库存、保存用户、发送订单消息、记录排队状态
+for _, v in ipairs(vouchers) do
+    consume(v)
+    redis.call('incrby', v.stockKey, -1)
+    redis.call('sadd', v.orderKey, userId)
+    redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', v.voucherId, 'id', v.orderId)
+    redis.call('set', v.statusKey, '0:' .. userId, 'EX', statusTtl)
+end
+return {0, 0}
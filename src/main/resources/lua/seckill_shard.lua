@@ -0,0 +1,30 @@
+---
+--- 分片模式下的回退扣减：用户已在自己的去重分片上预占，这里只扣减库存并发送订单消息
+---
+-- 1.参数列表
+local voucherId = ARGV[1]
+local userId = ARGV[2]
+local orderId = ARGV[3]
+local statusTtl = ARGV[4]
+local idemTtl = ARGV[5]
+
+-- 2.库存分片key、订单状态key、幂等记录key（未携带幂等键时为空串）
+local stockKey = KEYS[1]
+local statusKey = KEYS[2]
+local idemKey = KEYS[3]
+
+-- 3.判断分片库存是否充足
+if((tonumber(redis.call('get', stockKey)) or 0) <= 0) then
+    return 1
+end
+-- 4.扣库存
+redis.call('incrby', stockKey, -1)
+-- 5.发送消息到队列中
+redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+-- 6.记录订单状态：排队中
+redis.call('set', statusKey, '0:' .. userId, 'EX', statusTtl)
+-- 7.记录幂等键对应的订单id
+if(idemKey ~= '') then
+    redis.call('set', idemKey, orderId, 'EX', idemTtl)
+end
+return 0
@@ -0,0 +1,17 @@
+---
+--- 活动进行中修复库存：按增量调整，不覆盖期间被 seckill.lua 扣减的库存
+---
+-- KEYS[1] 库存key，KEYS[2] 已下单用户集合
+-- ARGV[1] 对账时读到的 库存 + 用户数，ARGV[2] 以MySQL为准的目标值
+-- 秒杀扣库存与写入用户在同一个脚本内完成，二者之和在正常下单时不变；与对账时读到的值不同，说明期间有取消等变动，本次不修复
+local stock = tonumber(redis.call('get', KEYS[1]) or '0')
+local total = stock + redis.call('scard', KEYS[2])
+if(total ~= tonumber(ARGV[1])) then
+    return -1
+end
+local target = stock + tonumber(ARGV[2]) - total
+if(target < 0) then
+    target = 0
+end
+redis.call('set', KEYS[1], target)
+return target
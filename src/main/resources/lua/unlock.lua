@@ -0,0 +1,8 @@
+---
+--- 释放锁：值与加锁时写入的令牌一致才删除，锁已过期被其它线程获取时不会误删
+---
+-- KEYS[1] 锁key，ARGV[1] 加锁时写入的令牌
+if(redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('del', KEYS[1])
+end
+return 0
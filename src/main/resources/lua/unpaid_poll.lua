@@ -0,0 +1,10 @@
+---
+--- 取出到期的未支付订单：ZRANGEBYSCORE + ZREM 原子完成，多个节点同时轮询也不会重复取到
+---
+-- KEYS[1] 延迟队列 seckill:order:unpaid，score 为支付截止时间（毫秒）
+-- ARGV[1] 当前时间（毫秒），ARGV[2] 本次最多取出的数量
+local members = redis.call('zrangebyscore', KEYS[1], '-inf', ARGV[1], 'LIMIT', 0, tonumber(ARGV[2]))
+if(#members > 0) then
+    redis.call('zrem', KEYS[1], unpack(members))
+end
+return members
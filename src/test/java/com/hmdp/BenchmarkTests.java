@@ -0,0 +1,22 @@
+package com.hmdp;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * 启动本包下的全部JMH基准（*Benchmark），默认不执行：mvn test -Pbenchmark；
+ * 只运行其中一部分时用 -Dbenchmark.include 指定类名正则，如 -Dbenchmark.include=IdWorkerBenchmark
+ */
+@Tag("benchmark")
+class BenchmarkTests {
+
+    @Test
+    void benchmark() throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(System.getProperty("benchmark.include", BenchmarkTests.class.getPackage().getName() + "\\..*Benchmark"))
+                .build()).run();
+    }
+}
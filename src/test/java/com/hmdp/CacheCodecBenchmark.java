@@ -0,0 +1,74 @@
+package com.hmdp;
+
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存编码的JMH基准：Shop、Blog 在 binary、json 两种编码下的编码和解码耗时，并打印编码后大小。
+ * 由 BenchmarkTests 启动：mvn test -Pbenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheCodecBenchmark {
+
+    @Param({BinaryCacheCodec.NAME, JsonCacheCodec.NAME})
+    public String codecName;
+
+    private CacheCodec codec;
+    private Shop shop;
+    private Blog blog;
+    private byte[] shopBytes;
+    private byte[] blogBytes;
+
+    @Setup
+    public void setUp() {
+        JsonCacheCodec json = new JsonCacheCodec();
+        codec = BinaryCacheCodec.NAME.equals(codecName) ? new BinaryCacheCodec(json) : json;
+        shop = CacheCodecTests.shop();
+        blog = CacheCodecTests.blog();
+        long expireMillis = System.currentTimeMillis() + 60_000;
+        shopBytes = codec.encode(shop, expireMillis);
+        blogBytes = codec.encode(blog, expireMillis);
+        System.out.println(codecName + ": shop = " + shopBytes.length + " bytes, blog = " + blogBytes.length + " bytes");
+    }
+
+    @Benchmark
+    public byte[] encodeShop() {
+        return codec.encode(shop, 1L);
+    }
+
+    @Benchmark
+    public Object decodeShop() {
+        return codec.decode(shopBytes, Shop.class);
+    }
+
+    @Benchmark
+    public byte[] encodeBlog() {
+        return codec.encode(blog, 1L);
+    }
+
+    @Benchmark
+    public Object decodeBlog() {
+        return codec.decode(blogBytes, Blog.class);
+    }
+}
@@ -0,0 +1,117 @@
+package com.hmdp;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.BinaryCacheCodec;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.CacheEntry;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.RedisData;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Collections;
+
+/**
+ * 缓存编码：二进制与JSON的往返一致性，以及切换编码期间读取旧JSON数据。
+ * 编解码耗时见 {@link CacheCodecBenchmark}，默认不执行：mvn test -Pbenchmark
+ */
+class CacheCodecTests {
+
+    private final JsonCacheCodec json = new JsonCacheCodec();
+    private final BinaryCacheCodec binary = new BinaryCacheCodec(json);
+
+    static Shop shop() {
+        return new Shop()
+                .setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19, 123_000_000));
+    }
+
+    static Blog blog() {
+        return new Blog()
+                .setId(4L)
+                .setShopId(4L)
+                .setUserId(2L)
+                .setTitle("无尽浪漫的夜晚丨在万花丛中摇晃着红酒杯🍷品战斧牛排🥩")
+                .setImages("/imgs/blogs/7/14/4771fefb-1a87-4252-816c-9f7ec41ffa4a.jpg,/imgs/blogs/4/10/2f07e3c9-ddce-482d-9ea7-c21450f8d7cd.jpg")
+                .setContent(String.join("", Collections.nCopies(20, "生活就是一半烟火·一半诗意<br/>手执烟火谋生活·心怀诗意以谋爱·<br/>")))
+                .setLiked(1)
+                .setComments(104)
+                .setCreateTime(LocalDateTime.of(2021, 12, 28, 19, 50, 1))
+                .setUpdateTime(LocalDateTime.of(2022, 3, 10, 14, 26, 34));
+    }
+
+    @Test
+    void testRoundTrip() {
+        long expireMillis = System.currentTimeMillis() + 60_000;
+        for (CacheCodec codec : new CacheCodec[]{binary, json}) {
+            for (Object value : new Object[]{shop(), blog(), new Shop().setId(2L)}) {
+                // JSON 中 LocalDateTime 只保留到毫秒
+                Assertions.assertEquals(value, codec.decode(codec.encode(value, 0), value.getClass()).getValue(), codec.name());
+                CacheEntry<?> entry = codec.decode(codec.encode(value, expireMillis), value.getClass());
+                Assertions.assertEquals(value, entry.getValue(), codec.name());
+                Assertions.assertEquals(expireMillis, entry.getExpireMillis(), codec.name());
+            }
+        }
+    }
+
+    @Test
+    void testBinaryIsSmaller() {
+        byte[] bytes = binary.encode(shop(), 0);
+        Assertions.assertTrue(BinaryCacheCodec.isBinary(bytes));
+        Assertions.assertTrue(bytes.length < json.encode(shop(), 0).length);
+        Assertions.assertFalse(BinaryCacheCodec.isBinary(json.encode(shop(), 0)));
+    }
+
+    @Test
+    void testReadLegacyJson() {
+        // 切换编码前 CacheClient 写入的格式
+        RedisData redisData = new RedisData();
+        redisData.setData(shop());
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(30));
+        CacheEntry<Shop> entry = json.decode(JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8), Shop.class);
+        Assertions.assertEquals(shop(), entry.getValue());
+        Assertions.assertTrue(entry.isLogical());
+        Assertions.assertFalse(entry.isExpired());
+
+        entry = json.decode(JSONUtil.toJsonStr(shop()).getBytes(StandardCharsets.UTF_8), Shop.class);
+        Assertions.assertEquals(shop(), entry.getValue());
+        Assertions.assertFalse(entry.isLogical());
+    }
+
+    @Test
+    void testSchemaMismatch() {
+        // 类结构不同（相当于字段变更后的旧数据）时按未命中处理
+        UserDTO user = new UserDTO();
+        user.setId(1L);
+        user.setNickName("user_1");
+        Assertions.assertNull(binary.decode(binary.encode(user, 0), Shop.class));
+        // 不支持的类退回JSON
+        byte[] bytes = binary.encode(Collections.singletonMap("id", 1), 0);
+        Assertions.assertFalse(BinaryCacheCodec.isBinary(bytes));
+        Assertions.assertNull(binary.decode(new byte[]{BinaryCacheCodec.VERSION}, Shop.class));
+    }
+
+    @Test
+    void testNullAndEdgeValues() {
+        Shop shop = new Shop().setId(Long.MIN_VALUE).setSold(Integer.MAX_VALUE).setX(-0.0).setY(Double.NaN).setName("");
+        Assertions.assertEquals(shop, binary.decode(binary.encode(shop, 0), Shop.class).getValue());
+    }
+}
@@ -1,23 +1,63 @@
 package com.hmdp;
 
 
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.OrderStatusDTO;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.IdBloomFilters;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RedisScriptRegistry;
+import com.hmdp.utils.SeckillRateLimiter;
+import com.hmdp.utils.SeckillStockShards;
+import com.hmdp.utils.UserHolder;
+import com.hmdp.utils.VoucherOrderShards;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.redis.core.StringRedisTemplate;
 
 import javax.annotation.Resource;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.ORDER_STATUS_KEY;
+import static com.hmdp.utils.RedisConstants.ORDER_UNPAID_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SHARDS_KEY;
 
-@SpringBootTest
+
+@SpringBootTest(properties = "hmdp.id.mode=snowflake")
 class HmDianPingApplicationTests {
 
 
     @Resource
     private RedisIdWorker redisIdWorker;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private SeckillStockShards stockShards;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisScriptRegistry scriptRegistry;
+    @Resource
+    private IdBloomFilters bloomFilters;
+    @Resource
+    private VoucherOrderShards orderShards;
+    @Resource
+    private SeckillRateLimiter rateLimiter;
 
   private ExecutorService es = Executors.newFixedThreadPool(500);
     @Test
@@ -40,4 +80,137 @@ class HmDianPingApplicationTests {
         System.out.println("time = " + (end - begin));
     }
 
+    /**
+     * incr、segment、snowflake 三种模式并发生成3万个ID：不能重复，每个线程拿到的ID单调递增。
+     * 三种模式的吞吐对比见 IdWorkerBenchmark：mvn test -Pbenchmark
+     */
+    @Test
+    void testIdWorkerModes() throws InterruptedException {
+        assertIdWorker(new RedisIdWorker(stringRedisTemplate, scriptRegistry, RedisIdWorker.MODE_INCR, 1000));
+        assertIdWorker(new RedisIdWorker(stringRedisTemplate, scriptRegistry, RedisIdWorker.MODE_SEGMENT, 1000));
+        assertIdWorker(redisIdWorker);
+    }
+
+    private void assertIdWorker(RedisIdWorker idWorker) throws InterruptedException {
+        CountDownLatch latch = new CountDownLatch(300);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        AtomicInteger disordered = new AtomicInteger();
+        Runnable task = () -> {
+            long last = 0;
+            for (int i = 0; i < 100; i++) {
+                long id = idWorker.nextId("order");
+                if (id <= last) {
+                    disordered.incrementAndGet();
+                }
+                last = id;
+                ids.add(id);
+            }
+            latch.countDown();
+        };
+        for (int i = 0; i < 300; i++) {
+            es.submit(task);
+        }
+        latch.await();
+        Assertions.assertEquals(30000, ids.size());
+        Assertions.assertEquals(0, disordered.get());
+    }
+
+    /**
+     * 单key库存与8个分片下，3000个用户抢1500库存：不超卖、不少卖，各分片库存归零且没有负数，
+     * 去重集合中恰好是抢到的用户（回退其它分片失败的预占已释放）。
+     * 结束后删除写入的库存、去重、限流和订单状态key，以及未支付队列中的记录和订单表中的订单
+     */
+    @Test
+    void testSeckillStockShards() throws InterruptedException {
+        assertStockConserved(9_000_001L, 1);
+        assertStockConserved(9_000_002L, 8);
+    }
+
+    private void assertStockConserved(Long voucherId, int shards) throws InterruptedException {
+        int stock = 1500;
+        int tasks = 30;
+        long firstUserId = voucherId * 100000 + 1;
+        List<String> stockKeys = new ArrayList<>();
+        List<String> orderKeys = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            stockKeys.add(stockShards.stockKey(voucherId, i, shards));
+            orderKeys.add(stockShards.orderKey(voucherId, i, shards));
+        }
+        stringRedisTemplate.delete(orderKeys);
+        stockShards.initStock(voucherId, stock, shards);
+        // 测试券不在 tb_voucher 中，登记到布隆过滤器
+        bloomFilters.add(IdBloomFilters.VOUCHER, voucherId);
+
+        // orderId -> userId
+        Map<Long, Long> orders = new ConcurrentHashMap<>();
+        try {
+            CountDownLatch latch = new CountDownLatch(tasks);
+            AtomicLong userId = new AtomicLong(firstUserId - 1);
+            Runnable task = () -> {
+                for (int i = 0; i < 100; i++) {
+                    UserDTO user = new UserDTO();
+                    user.setId(userId.incrementAndGet());
+                    UserHolder.saveUser(user);
+                    try {
+                        Result result = voucherOrderService.seckillVoucher(voucherId);
+                        if (result.getSuccess()) {
+                            orders.put((Long) result.getData(), user.getId());
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                UserHolder.removeUser();
+                latch.countDown();
+            };
+            for (int i = 0; i < tasks; i++) {
+                es.submit(task);
+            }
+            latch.await();
+
+            // 1.不超卖也不少卖
+            Assertions.assertEquals(stock, orders.size());
+            // 2.各分片库存都已扣完，没有扣成负数
+            for (String stockKey : stockKeys) {
+                Assertions.assertEquals("0", stringRedisTemplate.opsForValue().get(stockKey), stockKey);
+            }
+            // 3.去重集合中只有抢到的用户
+            long reserved = 0;
+            for (String orderKey : orderKeys) {
+                reserved += stringRedisTemplate.opsForSet().size(orderKey);
+            }
+            Assertions.assertEquals(stock, reserved);
+        } finally {
+            cleanUp(voucherId, stockKeys, orderKeys, firstUserId, tasks * 100, orders);
+        }
+    }
+
+    private void cleanUp(Long voucherId, List<String> stockKeys, List<String> orderKeys, long firstUserId, int users,
+                         Map<Long, Long> orders) throws InterruptedException {
+        // 1.等订单消息消费完（状态变为已落库），再删除订单和未支付记录，避免删除后又被写入
+        List<String> statusKeys = orders.keySet().stream().map(id -> ORDER_STATUS_KEY + id).collect(Collectors.toList());
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (!statusKeys.isEmpty() && System.currentTimeMillis() < deadline) {
+            List<String> records = stringRedisTemplate.opsForValue().multiGet(statusKeys);
+            if (records == null || records.stream().noneMatch(r -> r == null || r.startsWith(OrderStatusDTO.PENDING + ":"))) {
+                break;
+            }
+            Thread.sleep(200);
+        }
+        orderShards.routeAll(() -> voucherOrderService.remove(new QueryWrapper<VoucherOrder>().eq("voucher_id", voucherId)));
+        if (!orders.isEmpty()) {
+            stringRedisTemplate.opsForZSet().remove(ORDER_UNPAID_KEY, orders.entrySet().stream()
+                    .map(e -> e.getKey() + ":" + voucherId + ":" + e.getValue()).toArray());
+        }
+        // 2.库存、分片数、去重集合、订单状态和限流key
+        List<String> keys = new ArrayList<>(stockKeys);
+        keys.addAll(orderKeys);
+        keys.add(SECKILL_SHARDS_KEY + voucherId);
+        keys.addAll(statusKeys);
+        for (long userId = firstUserId; userId < firstUserId + users; userId++) {
+            keys.add(rateLimiter.limitKey(voucherId, userId));
+        }
+        stringRedisTemplate.delete(keys);
+    }
+
 }
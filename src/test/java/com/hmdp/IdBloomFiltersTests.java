@@ -0,0 +1,64 @@
+package com.hmdp;
+
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.VoucherMapper;
+import com.hmdp.utils.IdBloomFilters;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 布隆过滤器重建期间新增的id不能丢失：新增时先写表再写过滤器，重建读表与新增并发进行
+ */
+class IdBloomFiltersTests {
+
+    private static final int IDS = 20_000;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testPutDuringRebuild() throws Exception {
+        // 模拟 tb_shop：每次重建第一次分块读取返回表中全部id，第二次返回空
+        Set<Long> table = new ConcurrentSkipListSet<>();
+        AtomicBoolean chunkRead = new AtomicBoolean();
+        ShopMapper shopMapper = Mockito.mock(ShopMapper.class);
+        VoucherMapper voucherMapper = Mockito.mock(VoucherMapper.class);
+        Mockito.when(shopMapper.selectCount(Mockito.any())).thenAnswer(invocation -> table.size());
+        Mockito.when(shopMapper.selectObjs(Mockito.any())).thenAnswer(invocation ->
+                chunkRead.getAndSet(!chunkRead.get()) ? Collections.emptyList() : new ArrayList<Object>(table));
+        Mockito.when(voucherMapper.selectCount(Mockito.any())).thenReturn(0);
+        Mockito.when(voucherMapper.selectObjs(Mockito.any())).thenReturn(Collections.emptyList());
+        IdBloomFilters filters = new IdBloomFilters(shopMapper, voucherMapper, Mockito.mock(StringRedisTemplate.class),
+                Mockito.mock(RedisMessageListenerContainer.class), true, 1000, 0.01, 1000, 0.01);
+        filters.rebuild();
+
+        // 一个线程不断新增id，另一个线程不断重建
+        AtomicBoolean done = new AtomicBoolean();
+        CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            for (long id = 1; id <= IDS; id++) {
+                table.add(id);
+                filters.add(IdBloomFilters.SHOP, id);
+            }
+            done.set(true);
+        });
+        int rebuilds = 0;
+        while (!done.get()) {
+            filters.rebuild();
+            rebuilds++;
+        }
+        writer.get(30, TimeUnit.SECONDS);
+
+        for (long id = 1; id <= IDS; id++) {
+            Assertions.assertTrue(filters.mightContain(IdBloomFilters.SHOP, id), "重建 " + rebuilds + " 次后丢失id " + id);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.hmdp;
+
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RedisScriptRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 全局ID的JMH基准：incr、segment、snowflake 三种模式多线程生成ID的吞吐。
+ * 使用本地Redis的15号库，可用 BENCHMARK_REDIS_HOST、BENCHMARK_REDIS_PORT 指定；由 BenchmarkTests 启动：mvn test -Pbenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class IdWorkerBenchmark {
+
+    @Param({RedisIdWorker.MODE_INCR, RedisIdWorker.MODE_SEGMENT, RedisIdWorker.MODE_SNOWFLAKE})
+    public String mode;
+
+    private RedisIdWorker idWorker;
+
+    @Setup
+    public void setUp() {
+        RedisStandaloneConfiguration configuration = new RedisStandaloneConfiguration(
+                System.getenv().getOrDefault("BENCHMARK_REDIS_HOST", "localhost"),
+                Integer.parseInt(System.getenv().getOrDefault("BENCHMARK_REDIS_PORT", "6379")));
+        configuration.setDatabase(15);
+        LettuceConnectionFactory connectionFactory = new LettuceConnectionFactory(configuration);
+        connectionFactory.afterPropertiesSet();
+        StringRedisTemplate stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        RedisScriptRegistry scriptRegistry = new RedisScriptRegistry(stringRedisTemplate);
+        ReflectionTestUtils.invokeMethod(scriptRegistry, "init");
+        idWorker = new RedisIdWorker(stringRedisTemplate, scriptRegistry, mode, 1000);
+        // snowflake 模式在这里租用 worker id
+        ReflectionTestUtils.invokeMethod(idWorker, "init");
+    }
+
+    @TearDown
+    public void tearDown() {
+        // 只释放 worker id；segment 模式的后台预取可能仍在使用连接，连接随基准进程退出关闭
+        ReflectionTestUtils.invokeMethod(idWorker, "destroy");
+    }
+
+    @Benchmark
+    public long nextId() {
+        return idWorker.nextId("benchmark");
+    }
+}
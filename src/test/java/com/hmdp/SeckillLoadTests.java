@@ -0,0 +1,262 @@
+package com.hmdp;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.Voucher;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.VoucherOrderShards;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 秒杀压测：启动完整应用（本地Redis + 内存H2），通过HTTP压 /voucher-order/seckill/{id}，
+ * 报告吞吐、延迟分位、超卖数、重复下单数和订单消息落库耗时。
+ * 默认不随 mvn test 执行，发布前运行：
+ * mvn test -Ploadtest -Dloadtest.users=5000 -Dloadtest.concurrency=400
+ */
+@Tag("loadtest")
+@ActiveProfiles("loadtest")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+class SeckillLoadTests {
+
+    private static final String TOKEN_PREFIX = "loadtest:";
+
+    @Resource
+    private TestRestTemplate restTemplate;
+    @Resource
+    private IVoucherService voucherService;
+    @Resource
+    private IVoucherOrderService voucherOrderService;
+    @Resource
+    private VoucherOrderShards orderShards;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Value("${loadtest.users}")
+    private int users;
+    @Value("${loadtest.vouchers}")
+    private int vouchers;
+    @Value("${loadtest.stock}")
+    private int stock;
+    @Value("${loadtest.attempts}")
+    private int attempts;
+    @Value("${loadtest.concurrency}")
+    private int concurrency;
+    @Value("${loadtest.drain-timeout-seconds}")
+    private long drainTimeoutSeconds;
+
+    @Test
+    void loadTestSeckill() throws InterruptedException {
+        // 1.准备数据：清理上次压测的秒杀key，创建券和登录用户
+        deleteKeys("seckill:*");
+        List<Long> voucherIds = createVouchers();
+        loginUsers();
+
+        // 2.按 用户 x 券 x 次数 打乱顺序后并发请求
+        List<long[]> tasks = new ArrayList<>(users * vouchers * attempts);
+        for (int a = 0; a < attempts; a++) {
+            for (long u = 1; u <= users; u++) {
+                for (Long voucherId : voucherIds) {
+                    tasks.add(new long[]{u, voucherId});
+                }
+            }
+        }
+        Collections.shuffle(tasks);
+        AtomicLongArray latencies = new AtomicLongArray(tasks.size());
+        Map<Long, AtomicInteger> succeeded = new HashMap<>();
+        voucherIds.forEach(id -> succeeded.put(id, new AtomicInteger()));
+        AtomicInteger errors = new AtomicInteger();
+        AtomicInteger cursor = new AtomicInteger();
+
+        ExecutorService es = Executors.newFixedThreadPool(concurrency);
+        CountDownLatch latch = new CountDownLatch(concurrency);
+        long begin = System.nanoTime();
+        for (int t = 0; t < concurrency; t++) {
+            es.submit(() -> {
+                try {
+                    int i;
+                    while ((i = cursor.getAndIncrement()) < tasks.size()) {
+                        long[] task = tasks.get(i);
+                        long start = System.nanoTime();
+                        try {
+                            Result result = seckill(task[0], task[1]);
+                            if (result != null && Boolean.TRUE.equals(result.getSuccess())) {
+                                succeeded.get(task[1]).incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                        latencies.set(i, System.nanoTime() - start);
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        long requestNanos = System.nanoTime() - begin;
+        es.shutdown();
+
+        // 3.等待订单消息全部落库
+        long successes = succeeded.values().stream().mapToLong(AtomicInteger::get).sum();
+        long drainBegin = System.nanoTime();
+        long persisted;
+        while ((persisted = countOrders()) < successes
+                && System.nanoTime() - drainBegin < drainTimeoutSeconds * 1_000_000_000L) {
+            Thread.sleep(20);
+        }
+        long drainMillis = (System.nanoTime() - drainBegin) / 1_000_000;
+
+        // 4.统计
+        long oversold = 0;
+        Map<Long, Long> ordersByVoucher = countOrdersByVoucher();
+        for (Long voucherId : voucherIds) {
+            long sold = Math.max(succeeded.get(voucherId).get(), ordersByVoucher.getOrDefault(voucherId, 0L));
+            oversold += Math.max(0, sold - stock);
+        }
+        long duplicates = countDuplicates();
+        long[] sorted = new long[latencies.length()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+
+        System.out.println("========== seckill load test ==========");
+        System.out.println("users = " + users + ", vouchers = " + vouchers + ", stock = " + stock
+                + ", attempts = " + attempts + ", concurrency = " + concurrency);
+        System.out.println("requests = " + tasks.size() + ", errors = " + errors.get()
+                + ", cost = " + requestNanos / 1_000_000 + "ms"
+                + ", throughput = " + String.format("%.0f", tasks.size() * 1e9 / requestNanos) + " req/s");
+        System.out.println("latency p50 = " + micros(sorted, 0.50) + "us, p99 = " + micros(sorted, 0.99)
+                + "us, p999 = " + micros(sorted, 0.999) + "us, max = " + sorted[sorted.length - 1] / 1000 + "us");
+        System.out.println("succeeded = " + successes + ", persisted = " + persisted + ", drain = " + drainMillis + "ms");
+        System.out.println("oversold = " + oversold + ", duplicates = " + duplicates);
+
+        Assertions.assertEquals(0, oversold, "超卖");
+        Assertions.assertEquals(0, duplicates, "重复下单");
+        Assertions.assertEquals(successes, persisted, "订单消息未在 " + drainTimeoutSeconds + "s 内全部落库");
+    }
+
+    private Result seckill(long userId, long voucherId) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.set("authorization", TOKEN_PREFIX + userId);
+        return restTemplate.exchange("/voucher-order/seckill/" + voucherId, HttpMethod.POST,
+                new HttpEntity<>(headers), Result.class).getBody();
+    }
+
+    private List<Long> createVouchers() {
+        List<Long> ids = new ArrayList<>(vouchers);
+        for (int i = 0; i < vouchers; i++) {
+            Voucher voucher = new Voucher();
+            voucher.setShopId(1L);
+            voucher.setTitle("压测券" + i);
+            voucher.setPayValue(100L);
+            voucher.setActualValue(1000L);
+            voucher.setType(1);
+            voucher.setStatus(1);
+            voucher.setStock(stock);
+            voucher.setBeginTime(LocalDateTime.now().minusHours(1));
+            voucher.setEndTime(LocalDateTime.now().plusHours(1));
+            voucherService.addSeckillVoucher(voucher);
+            ids.add(voucher.getId());
+        }
+        return ids;
+    }
+
+    private void loginUsers() {
+        stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) {
+                for (long u = 1; u <= users; u++) {
+                    Map<String, String> user = new HashMap<>(4);
+                    user.put("id", String.valueOf(u));
+                    user.put("nickName", "user_" + u);
+                    user.put("icon", "");
+                    operations.opsForHash().putAll(RedisConstants.LOGIN_USER_KEY + TOKEN_PREFIX + u, user);
+                }
+                return null;
+            }
+        });
+    }
+
+    private void deleteKeys(String pattern) {
+        List<String> keys = stringRedisTemplate.execute((RedisCallback<List<String>>) connection -> {
+            List<String> found = new ArrayList<>();
+            try (Cursor<byte[]> c = connection.scan(ScanOptions.scanOptions().match(pattern).count(1000).build())) {
+                c.forEachRemaining(key -> found.add(new String(key)));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+            return found;
+        });
+        if (keys != null && !keys.isEmpty()) {
+            stringRedisTemplate.delete(keys);
+        }
+    }
+
+    private long countOrders() {
+        return orderShards.routeAll(() -> voucherOrderService.count()).stream().mapToLong(Integer::longValue).sum();
+    }
+
+    private Map<Long, Long> countOrdersByVoucher() {
+        Map<Long, Long> counts = new HashMap<>();
+        for (List<Map<String, Object>> rows : orderShards.routeAll(() -> voucherOrderService.listMaps(new QueryWrapper<VoucherOrder>()
+                .select("voucher_id", "count(*) AS cnt").groupBy("voucher_id")))) {
+            for (Map<String, Object> row : rows) {
+                counts.merge(number(row, "voucher_id"), number(row, "cnt"), Long::sum);
+            }
+        }
+        return counts;
+    }
+
+    private long countDuplicates() {
+        return orderShards.routeAll(() -> voucherOrderService.listMaps(new QueryWrapper<VoucherOrder>()
+                .select("voucher_id", "user_id").groupBy("voucher_id", "user_id").having("count(*) > 1")).size())
+                .stream().mapToLong(Integer::longValue).sum();
+    }
+
+    /**
+     * H2 返回的列名为大写
+     */
+    private static long number(Map<String, Object> row, String column) {
+        Object value = row.containsKey(column) ? row.get(column) : row.get(column.toUpperCase());
+        return ((Number) value).longValue();
+    }
+
+    private static long micros(long[] sorted, double percentile) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1000;
+    }
+}
@@ -0,0 +1,98 @@
+package com.hmdp;
+
+import com.hmdp.utils.RedisScriptRegistry;
+import com.hmdp.utils.SeckillScriptExecutor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 秒杀脚本批量执行：排队超时放弃的请求不再执行，整批失败时逐个确认结果。
+ * 脚本注册表为记录调用的桩，脚本未被调用即说明没有扣库存、没有写入 stream.orders
+ */
+class SeckillScriptExecutorTests {
+
+    private final StringRedisTemplate stringRedisTemplate = Mockito.mock(StringRedisTemplate.class);
+    private final StubScriptRegistry scriptRegistry = new StubScriptRegistry(stringRedisTemplate);
+    private SeckillScriptExecutor executor;
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(executor, "destroy");
+    }
+
+    @Test
+    void testAbandonedRequestIsNotExecuted() {
+        executor = new SeckillScriptExecutor(scriptRegistry, stringRedisTemplate, true, 2, 64, 1, 100);
+        scriptRegistry.handler = keys -> Collections.nCopies(keys.size() / 6, 0L);
+        // 1.刷新线程未启动，请求一直排队直到超时
+        Assertions.assertThrows(RuntimeException.class, () -> executor.execute(keys(1), args(1)));
+        // 2.启动刷新线程后，已放弃的请求被跳过，后续请求正常执行
+        ReflectionTestUtils.invokeMethod(executor, "init");
+        Assertions.assertEquals(0L, executor.execute(keys(2), args(2)));
+        Assertions.assertEquals(Collections.singletonList(keys(2)), scriptRegistry.calls);
+    }
+
+    @Test
+    void testBatchFailureIsResolvedPerRequest() throws Exception {
+        executor = new SeckillScriptExecutor(scriptRegistry, stringRedisTemplate, true, 200, 64, 1, 5000);
+        // 整批调用失败；订单1的状态key已存在（已执行成功），订单2单独重试时返回重复下单
+        scriptRegistry.handler = keys -> {
+            if (keys.size() > 6) {
+                throw new IllegalStateException("Redis command timed out");
+            }
+            return Collections.singletonList(2L);
+        };
+        Mockito.when(stringRedisTemplate.hasKey("seckill:order:status:1")).thenReturn(true);
+        Mockito.when(stringRedisTemplate.hasKey("seckill:order:status:2")).thenReturn(false);
+
+        CompletableFuture<Object> first = CompletableFuture.supplyAsync(() -> executor.execute(keys(1), args(1)));
+        CompletableFuture<Object> second = CompletableFuture.supplyAsync(() -> executor.execute(keys(2), args(2)));
+        Thread.sleep(100);
+        ReflectionTestUtils.invokeMethod(executor, "init");
+        Assertions.assertEquals(0L, first.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(2L, second.get(5, TimeUnit.SECONDS));
+        // 整批一次，订单2单独重试一次，订单1不重复执行
+        Assertions.assertEquals(2, scriptRegistry.calls.size());
+        Assertions.assertEquals(keys(2), scriptRegistry.calls.get(1));
+    }
+
+    private static List<String> keys(long orderId) {
+        return Arrays.asList("seckill:stock:1", "seckill:order:1", "seckill:voucher:1",
+                "seckill:order:status:" + orderId, "seckill:limit:1:" + orderId, "");
+    }
+
+    private static String[] args(long orderId) {
+        return new String[]{"1", String.valueOf(orderId), String.valueOf(orderId), "0", "900", "5", "10", "300"};
+    }
+
+    /**
+     * 记录每次脚本调用的KEYS，按 handler 返回结果
+     */
+    private static class StubScriptRegistry extends RedisScriptRegistry {
+        private final List<List<String>> calls = Collections.synchronizedList(new ArrayList<>());
+        private volatile Function<List<String>, List<Object>> handler;
+
+        private StubScriptRegistry(StringRedisTemplate stringRedisTemplate) {
+            super(stringRedisTemplate);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T execute(String name, Class<T> resultType, List<String> keys, Object... args) {
+            calls.add(keys);
+            return (T) handler.apply(keys);
+        }
+    }
+}
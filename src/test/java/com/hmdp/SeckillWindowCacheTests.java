@@ -0,0 +1,45 @@
+package com.hmdp;
+
+import com.hmdp.utils.SeckillWindowCache;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.Arrays;
+
+/**
+ * 活动时间本地预检：未写入的边界不做限制
+ */
+class SeckillWindowCacheTests {
+
+    private final StringRedisTemplate stringRedisTemplate = Mockito.mock(StringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final HashOperations<String, Object, Object> hashOps = Mockito.mock(HashOperations.class);
+    private final SeckillWindowCache windowCache = new SeckillWindowCache(stringRedisTemplate);
+
+    @Test
+    void testWindowBounds() {
+        Mockito.when(stringRedisTemplate.<Object, Object>opsForHash()).thenReturn(hashOps);
+        long now = System.currentTimeMillis();
+        // 1.旧券没有活动时间；只写了限流配置的券同样没有 begin/end
+        stubWindow(1L, null, null);
+        Assertions.assertEquals(SeckillWindowCache.OPEN, windowCache.check(1L));
+        // 2.只有一个边界
+        stubWindow(2L, null, String.valueOf(now - 60_000));
+        Assertions.assertEquals(SeckillWindowCache.ENDED, windowCache.check(2L));
+        stubWindow(3L, String.valueOf(now + 60_000), null);
+        Assertions.assertEquals(SeckillWindowCache.NOT_STARTED, windowCache.check(3L));
+        stubWindow(4L, String.valueOf(now - 60_000), null);
+        Assertions.assertEquals(SeckillWindowCache.OPEN, windowCache.check(4L));
+        // 3.完整的活动时间
+        stubWindow(5L, String.valueOf(now - 60_000), String.valueOf(now + 60_000));
+        Assertions.assertEquals(SeckillWindowCache.OPEN, windowCache.check(5L));
+    }
+
+    private void stubWindow(Long voucherId, String begin, String end) {
+        Mockito.when(hashOps.multiGet(Mockito.eq(windowCache.metaKey(voucherId)), Mockito.anyCollection()))
+                .thenReturn(Arrays.asList(begin, end));
+    }
+}
@@ -0,0 +1,163 @@
+package com.hmdp;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.MybatisSqlSessionFactoryBuilder;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.plugins.MybatisPlusInterceptor;
+import com.baomidou.mybatisplus.extension.plugins.inner.DynamicTableNameInnerInterceptor;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.VoucherOrderMapper;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.RedisScriptRegistry;
+import com.hmdp.utils.VoucherOrderShards;
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.io.Resources;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 订单分表路由：4个H2 schema（MySQL模式）模拟同一实例上的4个库，不依赖Spring容器和外部服务
+ */
+class VoucherOrderShardsTests {
+
+    private static final int SHARDS = 4;
+    private static final int USERS = 200;
+
+    private JdbcDataSource dataSource;
+    private VoucherOrderShards orderShards;
+    private SqlSessionFactory sqlSessionFactory;
+    private RedisIdWorker redisIdWorker;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:order_shards_" + System.nanoTime() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement()) {
+            for (int i = 0; i < SHARDS; i++) {
+                st.execute("CREATE SCHEMA hmdp_order_" + i);
+                st.execute("CREATE TABLE hmdp_order_" + i + ".tb_voucher_order (" +
+                        "id BIGINT PRIMARY KEY, user_id BIGINT NOT NULL, voucher_id BIGINT NOT NULL, " +
+                        "pay_type TINYINT NOT NULL DEFAULT 1, status TINYINT NOT NULL DEFAULT 1, " +
+                        "create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP, pay_time TIMESTAMP, use_time TIMESTAMP, " +
+                        "refund_time TIMESTAMP, update_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+            }
+        }
+        orderShards = new VoucherOrderShards(SHARDS, "hmdp_order_{}.tb_voucher_order");
+
+        MybatisConfiguration configuration = new MybatisConfiguration();
+        configuration.setEnvironment(new Environment("test", new JdbcTransactionFactory(), dataSource));
+        MybatisPlusInterceptor interceptor = new MybatisPlusInterceptor();
+        interceptor.addInnerInterceptor(new DynamicTableNameInnerInterceptor(
+                Collections.singletonMap(VoucherOrderShards.TABLE, orderShards)));
+        configuration.addInterceptor(interceptor);
+        try (InputStream in = Resources.getResourceAsStream("mapper/VoucherOrderMapper.xml")) {
+            new XMLMapperBuilder(in, configuration, "mapper/VoucherOrderMapper.xml", configuration.getSqlFragments()).parse();
+        }
+        sqlSessionFactory = new MybatisSqlSessionFactoryBuilder().build(configuration);
+
+        // segment 模式下 INCRBY 由本地计数器代替
+        AtomicLong counter = new AtomicLong();
+        StringRedisTemplate template = Mockito.mock(StringRedisTemplate.class);
+        @SuppressWarnings("unchecked")
+        ValueOperations<String, String> ops = Mockito.mock(ValueOperations.class);
+        Mockito.when(template.opsForValue()).thenReturn(ops);
+        Mockito.when(ops.increment(Mockito.anyString(), Mockito.anyLong()))
+                .thenAnswer(inv -> counter.addAndGet(inv.getArgument(1)));
+        redisIdWorker = new RedisIdWorker(template, Mockito.mock(RedisScriptRegistry.class), RedisIdWorker.MODE_SEGMENT, 1000);
+    }
+
+    @Test
+    void testShardRouting() throws Exception {
+        List<VoucherOrder> orders = new ArrayList<>();
+        for (long userId = 1; userId <= USERS; userId++) {
+            orders.add(new VoucherOrder()
+                    .setId(redisIdWorker.nextId("order", orderShards.gene(userId)))
+                    .setUserId(userId)
+                    .setVoucherId(userId % 2 + 10));
+        }
+        try (SqlSession session = sqlSessionFactory.openSession(true)) {
+            VoucherOrderMapper mapper = session.getMapper(VoucherOrderMapper.class);
+            // 1.按用户分片批量写入，重复写入被 INSERT IGNORE 跳过
+            int inserted = 0;
+            for (Map.Entry<Integer, List<VoucherOrder>> shard : orderShards.groupByUser(orders, VoucherOrder::getUserId).entrySet()) {
+                inserted += orderShards.route(shard.getKey(), () -> mapper.insertBatch(shard.getValue()));
+                orderShards.route(shard.getKey(), () -> mapper.insertBatch(shard.getValue()));
+            }
+            Assertions.assertEquals(USERS, inserted);
+
+            // 2.每个物理表只有属于该分片的用户
+            try (Connection conn = dataSource.getConnection(); Statement st = conn.createStatement()) {
+                for (int i = 0; i < SHARDS; i++) {
+                    try (ResultSet rs = st.executeQuery("SELECT user_id FROM hmdp_order_" + i + ".tb_voucher_order")) {
+                        int rows = 0;
+                        while (rs.next()) {
+                            Assertions.assertEquals(i, orderShards.shardOfUser(rs.getLong(1)));
+                            rows++;
+                        }
+                        Assertions.assertEquals(USERS / SHARDS, rows);
+                    }
+                }
+            }
+
+            // 3.按订单id点查：分片来自id中的基因
+            for (VoucherOrder order : orders) {
+                Assertions.assertEquals(orderShards.shardOfUser(order.getUserId()), orderShards.shardOfOrder(order.getId()));
+                VoucherOrder found = orderShards.route(orderShards.shardOfOrder(order.getId()), () -> mapper.selectById(order.getId()));
+                Assertions.assertNotNull(found);
+                Assertions.assertEquals(order.getUserId(), found.getUserId());
+            }
+
+            // 4.按用户查询只访问一个分片
+            for (long userId = 1; userId <= USERS; userId++) {
+                long uid = userId;
+                Integer count = orderShards.route(orderShards.shardOfUser(uid),
+                        () -> mapper.selectCount(new QueryWrapper<VoucherOrder>().eq("user_id", uid)));
+                Assertions.assertEquals(1, count);
+            }
+
+            // 5.按券统计需要汇总所有分片
+            long total = 0;
+            for (List<Map<String, Object>> rows : orderShards.routeAll(() -> mapper.selectMaps(new QueryWrapper<VoucherOrder>()
+                    .select("voucher_id", "count(*) AS cnt").groupBy("voucher_id")))) {
+                for (Map<String, Object> row : rows) {
+                    // H2 返回的列名为大写
+                    for (Map.Entry<String, Object> column : row.entrySet()) {
+                        if ("cnt".equalsIgnoreCase(column.getKey())) {
+                            total += ((Number) column.getValue()).longValue();
+                        }
+                    }
+                }
+            }
+            Assertions.assertEquals(USERS, total);
+
+            // 6.未指定分片直接访问订单表会失败，而不是悄悄落到逻辑表
+            Assertions.assertThrows(Exception.class, () -> mapper.selectById(orders.get(0).getId()));
+
+            // 7.分表前的旧订单按 user_id 迁移，id低位不是基因，按用户路由才能找到
+            long legacyUser = USERS + 1;
+            VoucherOrder legacy = new VoucherOrder().setId(1000L).setUserId(legacyUser).setVoucherId(20L);
+            Assertions.assertNotEquals(orderShards.shardOfUser(legacyUser), orderShards.shardOfOrder(legacy.getId()));
+            orderShards.route(orderShards.shardOfUser(legacyUser), () -> mapper.insertBatch(Collections.singletonList(legacy)));
+            Assertions.assertNotNull(orderShards.route(orderShards.shardOfUser(legacyUser), () -> mapper.selectById(legacy.getId())));
+        }
+    }
+}
@@ -0,0 +1,56 @@
+-- 压测用的H2表结构，与 db/hmdp.sql 中对应的表保持一致
+CREATE TABLE IF NOT EXISTS tb_voucher (
+  id BIGINT AUTO_INCREMENT PRIMARY KEY,
+  shop_id BIGINT,
+  title VARCHAR(255) NOT NULL,
+  sub_title VARCHAR(255),
+  rules VARCHAR(1024),
+  pay_value BIGINT NOT NULL,
+  actual_value BIGINT NOT NULL,
+  type TINYINT NOT NULL DEFAULT 0,
+  status TINYINT NOT NULL DEFAULT 1,
+  create_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  update_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS tb_seckill_voucher (
+  voucher_id BIGINT PRIMARY KEY,
+  stock INT NOT NULL,
+  applied_orders INT NOT NULL DEFAULT 0,
+  create_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  begin_time TIMESTAMP NOT NULL,
+  end_time TIMESTAMP NOT NULL,
+  update_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS tb_voucher_order (
+  id BIGINT PRIMARY KEY,
+  user_id BIGINT NOT NULL,
+  voucher_id BIGINT NOT NULL,
+  pay_type TINYINT NOT NULL DEFAULT 1,
+  status TINYINT NOT NULL DEFAULT 1,
+  create_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP,
+  pay_time TIMESTAMP,
+  use_time TIMESTAMP,
+  refund_time TIMESTAMP,
+  update_time TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+CREATE INDEX IF NOT EXISTS idx_voucher_user ON tb_voucher_order (voucher_id, user_id);
+
+CREATE TABLE IF NOT EXISTS tb_shop (
+  id BIGINT AUTO_INCREMENT PRIMARY KEY,
+  name VARCHAR(128) NOT NULL,
+  type_id BIGINT NOT NULL,
+  images VARCHAR(1024) NOT NULL,
+  area VARCHAR(128),
+  address VARCHAR(255) NOT NULL,
+  x DOUBLE NOT NULL,
+  y DOUBLE NOT NULL,
+  avg_price BIGINT,
+  sold INT NOT NULL,
+  comments INT NOT NULL,
+  score INT NOT NULL,
+  open_hours VARCHAR(32),
+  create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+  update_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);